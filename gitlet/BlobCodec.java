@@ -0,0 +1,127 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.stream.Collectors;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * The codecs of the blob files.
+ * A blob file starts with a header: the MAGIC bytes and the id of its codec,
+ * followed by the contents of the file encoded by the codec.
+ * A blob file without the header is a raw blob file of an old repository.
+ * A new codec is added as a new constant with a new id.
+ */
+public enum BlobCodec {
+
+    /** Saves the contents as they are. */
+    RAW(0) {
+        @Override
+        OutputStream encode(OutputStream out) {
+            return out;
+        }
+
+        @Override
+        InputStream decode(InputStream in) {
+            return in;
+        }
+    },
+
+    /** Compresses the contents with Deflate. */
+    DEFLATE(1) {
+        @Override
+        OutputStream encode(OutputStream out) {
+            return new DeflaterOutputStream(out, new Deflater(),
+                    Utils.BUFFER_SIZE);
+        }
+
+        @Override
+        InputStream decode(InputStream in) {
+            return new InflaterInputStream(in);
+        }
+    };
+
+    /** The bytes at the beginning of every blob file which has a header. */
+    static final byte[] MAGIC = {0, 'G', 'L', 'B'};
+
+    /** The length of the header of a blob file. */
+    static final int HEADER_LENGTH = MAGIC.length + 1;
+
+    /** The name of the system property to choose the codec of the new blob files. */
+    static final String PROPERTY = "gitlet.codec";
+
+    /** The codec of the new blob files, parsed from PROPERTY when it is first used. */
+    private static volatile BlobCodec defaultCodec;
+
+    /** The id of this codec, saved in the header. */
+    private final byte id;
+
+    /** The constructor of a codec. */
+    BlobCodec(int id) {
+        this.id = (byte) id;
+    }
+
+    /** Return a stream which encodes the contents written to it and writes them to OUT. */
+    abstract OutputStream encode(OutputStream out);
+
+    /** Return a stream which decodes the contents read from IN. */
+    abstract InputStream decode(InputStream in);
+
+    /** Write the header of this codec to OUT, and return the stream for the contents. */
+    OutputStream start(OutputStream out) throws IOException {
+        out.write(MAGIC);
+        out.write(id);
+        return encode(out);
+    }
+
+    /** Return the codec used for the new blob files, DEFLATE if it is not chosen.
+     *  The name in PROPERTY is only parsed once, an unknown name is an error.
+     */
+    static BlobCodec getDefault() {
+        BlobCodec codec = defaultCodec;
+        if (codec == null) {
+            codec = parse(System.getProperty(PROPERTY));
+            defaultCodec = codec;
+        }
+        return codec;
+    }
+
+    /** Return the codec of NAME in any case, DEFLATE if it is null. */
+    private static BlobCodec parse(String name) {
+        if (name == null) {
+            return DEFLATE;
+        }
+        for (BlobCodec codec : values()) {
+            if (codec.name().equalsIgnoreCase(name)) {
+                return codec;
+            }
+        }
+        throw Utils.error("Unknown blob codec %s of %s, the codecs are: %s.", name, PROPERTY,
+                Arrays.stream(values()).map(c -> c.name().toLowerCase())
+                        .collect(Collectors.joining(", ")));
+    }
+
+    /** Return the codec of a blob file by its first LENGTH bytes HEADER,
+     *  or null if the file has no header, which is a raw blob file of an old repository.
+     */
+    static BlobCodec fromHeader(byte[] header, int length) {
+        if (length < HEADER_LENGTH) {
+            return null;
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (header[i] != MAGIC[i]) {
+                return null;
+            }
+        }
+        for (BlobCodec codec : values()) {
+            if (codec.id == header[MAGIC.length]) {
+                return codec;
+            }
+        }
+        throw Utils.error("Unknown blob codec: %d", header[MAGIC.length]);
+    }
+}
@@ -1,116 +1,371 @@
 package gitlet;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.util.TreeSet;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 
 import static gitlet.Utils.*;
-import static gitlet.Utils.readObject;
 
 /**
  * This class manages the blob files.
- * The Field BLOBS is a TreeSet of the Hash Code of the files.
+ * A blob exists if there is a blob file with its Hash Code,
+ * or if it is found in the memory-mapped index of a Pack,
+ * so no set of all the Hash Codes is read from disk.
  * Every file has several copies if there are different versions.
- * Every copy will be saved under the BLOB_DIR with the name of its Hash Code.
+ * Every copy will be saved under the blob directory with the hex String of its Hash Code,
+ * encoded by a BlobCodec recorded in the header of the blob file.
+ * The blob files are moved into a Pack by gc, where the versions of a file
+ * are saved as deltas against each other.
  */
 public class Blobs {
 
+    /** The prefix of the temp files under the blob directory which are being written. */
+    public static final String TEMP_PREFIX = "tmp_";
+
     /** The directory that saves the blob files. */
-    public static final File BLOB_DIR = join(Repository.GITLET_DIR, "blob");
+    private final File blobDir;
 
-    /** The file that saves the Serialised Field: Blobs. */
-    public static final File BLOBS_FILE = join(Repository.OBJ_DIR, "blobs");
+    /** The directory that saves the packs. */
+    private final File packDir;
 
-    /**
-     * A Set of Blob Files. A file with different versions has different copies.
-     * The Set saves the hash codes of the copies.
-     * Key: hash value of the file; Value: the file name.
+    /** The work dir, where the merged files are written. */
+    private final File workDir;
+
+    /** The packs under packDir, loaded by getPacks(). */
+    private List<Pack> packs;
+
+    /** The maximum size of a version of a file to be saved as a delta,
+     *  the larger ones are always streamed as the full contents.
      */
-    private TreeSet<String> blobs;
+    private static final int MAX_DELTA_SIZE = 32 * 1024 * 1024;
 
-    /** The Filed BLOBS is generated by de-serialising from a disk file,
-     * or generate a new one if not exist.
+    /** The blobs of the repository of GITLETDIR, whose merged files are written to WORKDIR.
+     *  Create the blob directory if not exist.
+     *  The set of the blobs of an old repository is not needed any more, so it is deleted.
      */
-    public Blobs() {
-        try {
-            this.blobs = (TreeSet<String>) readObject(BLOBS_FILE, TreeSet.class);
-        } catch (IllegalArgumentException e) {
-            this.blobs = new TreeSet<>();
-            BLOB_DIR.mkdir();
+    public Blobs(File workDir, File gitletDir) {
+        this.workDir = workDir;
+        this.blobDir = blobDir(gitletDir);
+        this.packDir = Pack.packDir(gitletDir);
+        blobDir.mkdir();
+        join(Repository.objDir(gitletDir), "blobs").delete();
+    }
+
+    /** Return the directory of the blob files of the repository of GITLETDIR. */
+    static File blobDir(File gitletDir) {
+        return join(gitletDir, "blob");
+    }
+
+    /** Return the blob file of a Hash Code, which is named by its hex String. */
+    private File blobFile(ObjectId hashCode) {
+        return join(blobDir, hashCode.toHex());
+    }
+
+    /** Return if there is a blob with the Hash Code, in a blob file or a pack. */
+    public boolean hasBlob(ObjectId hashCode) {
+        return blobFile(hashCode).exists() || findPack(hashCode) != null;
+    }
+
+    /** Return the pack which has a blob, or null if it is not in any pack. */
+    private Pack findPack(ObjectId hashCode) {
+        for (Pack pack : getPacks()) {
+            if (pack.contains(hashCode)) {
+                return pack;
+            }
         }
+        return null;
     }
 
     /** Return the byte[] of a file from disk by its Hash Code. */
-    public byte[] getBlob(String hashCode) {
-        if (!blobs.contains(hashCode)) {
-            throw error("The blob file is NOT exist, check the hashCode first!");
+    public byte[] getBlob(ObjectId hashCode) {
+        try (InputStream in = openBlob(hashCode)) {
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw error("Cannot read the blob %s: %s", hashCode, e.getMessage());
         }
-
-        return readContents(join(BLOB_DIR, hashCode));
     }
 
     /** Return the String of a file from disk by its Hash Code. */
-    private String getBlobAsString(String hashCode) {
-        if (!blobs.contains(hashCode)) {
-            throw error("The blob file is NOT exist, check the hashCode first!");
+    private String getBlobAsString(ObjectId hashCode) {
+        return new String(getBlob(hashCode), StandardCharsets.UTF_8);
+    }
+
+    /** Return a stream of the decoded contents of a blob by its Hash Code,
+     *  from a blob file or a pack.
+     */
+    InputStream openBlob(ObjectId hashCode) throws IOException {
+        File file = blobFile(hashCode);
+        if (!file.exists()) {
+            Pack pack = findPack(hashCode);
+            if (pack == null) {
+                throw error("The blob file is NOT exist, check the hashCode first!");
+            }
+            return pack.open(hashCode);
+        }
+
+        InputStream in = new BufferedInputStream(
+                Files.newInputStream(file.toPath()), BUFFER_SIZE);
+        in.mark(BlobCodec.HEADER_LENGTH);
+        byte[] header = new byte[BlobCodec.HEADER_LENGTH];
+        BlobCodec codec = BlobCodec.fromHeader(header, in.readNBytes(header, 0, header.length));
+        if (codec == null) { // a raw blob file of an old repository.
+            in.reset();
+            return in;
         }
+        return codec.decode(in);
+    }
 
-        return readContentsAsString(join(BLOB_DIR, hashCode));
+    /** Return the codec of a blob file, or null if it is a raw blob file without header. */
+    private BlobCodec getCodec(ObjectId hashCode) {
+        try (InputStream in = Files.newInputStream(blobFile(hashCode).toPath())) {
+            byte[] header = new byte[BlobCodec.HEADER_LENGTH];
+            return BlobCodec.fromHeader(header, in.readNBytes(header, 0, header.length));
+        } catch (IOException e) {
+            throw error("Cannot read the blob %s: %s", hashCode, e.getMessage());
+        }
     }
 
     /**
-     * Add the blob file to disk if not exist.
-     * 1. Save the blob file to disk.
-     * 2. The blob file name is Hash Code.
-     * 3. Add the Hash Code to Field blobs.
-     * BUT SHOULD Call saveBlobs() to save the Field blob to disk.
+     * Add a file as a blob file to disk if not exist, and return its Hash Code.
+     * The file is hashed while it is encoded in chunks to a temp file under blobDir
+     * by the default BlobCodec, then the temp file is renamed to the Hash Code atomically,
+     * so the memory used does not depend on the size of the file.
      *
-     * @param hashCode: the Hash Code of the file.
-     * @param fileContent: the file content of the file.
+     * @param file: the file to add.
      *
-     * @return true if there is the new version of blob files.
+     * @return the Hash Code of the file.
      */
-    public boolean addBlob(String hashCode, byte[] fileContent) {
-        if (blobs.contains(hashCode)) {
-            return false;
+    public ObjectId addBlob(File file) {
+        MessageDigest md = sha1Digest();
+        BlobCodec codec = BlobCodec.getDefault();
+        File temp;
+        try {
+            temp = File.createTempFile(TEMP_PREFIX, null, blobDir);
+            try (InputStream in = new DigestInputStream(Files.newInputStream(file.toPath()), md);
+                 OutputStream out = codec.start(
+                         Files.newOutputStream(temp.toPath()))) {
+                in.transferTo(out);
+            }
+            syncFile(temp);
+        } catch (IOException e) {
+            throw error("Cannot add the blob of %s: %s", file.getName(), e.getMessage());
         }
 
-        writeContents(join(BLOB_DIR, hashCode), (Object) fileContent);
-        blobs.add(hashCode);
-        return true;
+        ObjectId hashCode = ObjectId.fromBytes(md.digest());
+        if (hasBlob(hashCode)) {
+            temp.delete();
+            return hashCode;
+        }
+        try {
+            Files.move(temp.toPath(), blobFile(hashCode).toPath(),
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            temp.delete();
+            throw error("Cannot add the blob of %s: %s", file.getName(), e.getMessage());
+        }
+        return hashCode;
     }
 
-    /** Delete a blob file and serialise the Field blobs and save to disk. */
-    public void removeBlob(String hashCode) {
-        File file = join(BLOB_DIR, hashCode);
-        if (file.exists()) {
-            file.delete();
+    /** Decode a blob file to FILE in the work dir in chunks. */
+    public void copyBlob(ObjectId hashCode, File file) {
+        try (InputStream in = openBlob(hashCode)) {
+            Files.copy(in, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw error("Cannot write %s: %s", file.getName(), e.getMessage());
         }
-        this.blobs.remove(hashCode);
-        saveBlobs();
     }
 
-    /** Merge 2 conflict blob files and save to word dir. */
-    public void mergeBlobs(String fileName, String headVer, String givenVer) {
-        System.out.println("Encountered a merge conflict.");
-        String newContent = "<<<<<<< HEAD\n" + getBlobAsString(headVer)
-                + "=======\n" + getBlobAsString(givenVer) + ">>>>>>>\n";
-        writeContents(join(Repository.CWD, fileName), newContent);
+    /** Encode every blob file whose codec is not the default codec again,
+     *  including the raw blob files of an old repository.
+     *  Every blob file is replaced atomically by a temp file.
+     *  The blobs in the packs are always deflated, so they are skipped.
+     */
+    public void recompress() {
+        BlobCodec codec = BlobCodec.getDefault();
+        for (ObjectId hashCode : getBlobFiles()) {
+            if (getCodec(hashCode) == codec) {
+                continue;
+            }
+            try {
+                File temp = File.createTempFile(TEMP_PREFIX, null, blobDir);
+                try (InputStream in = openBlob(hashCode);
+                     OutputStream out = codec.start(Files.newOutputStream(temp.toPath()))) {
+                    in.transferTo(out);
+                }
+                syncFile(temp);
+                Files.move(temp.toPath(), blobFile(hashCode).toPath(),
+                        StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                throw error("Cannot recompress the blob %s: %s", hashCode, e.getMessage());
+            }
+        }
     }
 
-    /** Merge 1 conflict blob file ONLY in HEAD and save to word dir. */
-    public void mergeSingleBlob(String fileName, String ver) {
-        System.out.println("Encountered a merge conflict.");
-        String newContent = "<<<<<<< HEAD\n" + getBlobAsString(ver) + "=======\n>>>>>>>\n";
-        writeContents(join(Repository.CWD, fileName), newContent);
+    /** Delete the temp files left under blobDir and packDir
+     *  by the interrupted commands.
+     */
+    public void removeTempFiles() {
+        for (File dir : new File[]{blobDir, packDir}) {
+            List<String> files = plainFilenamesIn(dir);
+            if (files == null) {
+                continue;
+            }
+            for (String file : files) {
+                if (file.startsWith(TEMP_PREFIX)) {
+                    join(dir, file).delete();
+                }
+            }
+        }
     }
 
-    /** Save the blob file to work dir. */
-    public void saveBlob(File file, byte[] content) {
-        writeContents(file, (Object) content);
+    /** Return the Hash Codes of the blob files under blobDir, which are not packed. */
+    private List<ObjectId> getBlobFiles() {
+        List<ObjectId> res = new ArrayList<>();
+        List<String> files = plainFilenamesIn(blobDir);
+        if (files != null) {
+            for (String file : files) {
+                if (!file.startsWith(TEMP_PREFIX)) {
+                    res.add(ObjectId.fromHex(file));
+                }
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Pack the blobs in use into a single new pack, then delete the blob files and the old packs.
+     * Every history lists the versions of a file, newest first.
+     * The newest version is saved in full, and each older version is saved as a delta
+     * against the version after it, if the delta is less than half of its size.
+     * The other blobs in use, e.g. the staged ones, are saved in full.
+     * The blobs which are not in use are dropped.
+     *
+     * @param histories the Hash Codes of the versions of every file.
+     * @param others the Hash Codes of the other blobs in use.
+     */
+    public void pack(List<List<ObjectId>> histories, Collection<ObjectId> others) {
+        List<Pack> oldPacks = getPacks();
+        Pack.Writer writer = new Pack.Writer(packDir);
+        try {
+            for (List<ObjectId> history : histories) {
+                byte[] base = null;
+                long baseOffset = -1;
+                int depth = 0;
+                for (ObjectId hashCode : history) {
+                    if (writer.getOffset(hashCode) >= 0) {
+                        base = null; // already packed with another file.
+                        continue;
+                    }
+                    byte[] content = getSmallBlob(hashCode);
+                    if (base != null && content != null && depth < Pack.MAX_DEPTH) {
+                        byte[] delta = Delta.create(base, content);
+                        if (delta.length < content.length / 2) {
+                            baseOffset = writer.addDelta(hashCode, baseOffset, delta);
+                            base = content;
+                            depth++;
+                            continue;
+                        }
+                    }
+                    try (InputStream in = content != null
+                            ? new ByteArrayInputStream(content) : openBlob(hashCode)) {
+                        baseOffset = writer.addFull(hashCode, in);
+                    }
+                    base = content;
+                    depth = 0;
+                }
+            }
+            for (ObjectId hashCode : others) {
+                if (writer.getOffset(hashCode) < 0) {
+                    try (InputStream in = openBlob(hashCode)) {
+                        writer.addFull(hashCode, in);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw error("Cannot pack the blobs: %s", e.getMessage());
+        }
+        File packFile = writer.finish();
+
+        for (Pack pack : oldPacks) {
+            if (pack.getFile().equals(packFile)) { // the same pack is written again.
+                pack.close();
+            } else {
+                pack.delete();
+            }
+        }
+        packs = null;
+        for (ObjectId hashCode : getBlobFiles()) {
+            blobFile(hashCode).delete();
+        }
+    }
+
+    /** Return the decoded contents of a blob if it has at most MAX_DELTA_SIZE bytes,
+     *  or null if it is larger, which is then streamed instead. The blob is decoded once:
+     *  at most MAX_DELTA_SIZE + 1 bytes are read to tell which one it is.
+     */
+    private byte[] getSmallBlob(ObjectId hashCode) throws IOException {
+        try (InputStream in = openBlob(hashCode)) {
+            byte[] content = in.readNBytes(MAX_DELTA_SIZE + 1);
+            return content.length <= MAX_DELTA_SIZE ? content : null;
+        }
     }
 
-    /** Serialise the Field blobs and write to disk. */
-    public void saveBlobs() {
-        writeObject(BLOBS_FILE, blobs);
+    /** Return the packs, read their index files when first used.
+     *  It is synchronized because the blobs may be read concurrently by Checkout.
+     */
+    private synchronized List<Pack> getPacks() {
+        if (packs == null) {
+            packs = Pack.loadAll(packDir);
+        }
+        return packs;
+    }
+
+    /** Close the packs which have been read. */
+    public synchronized void close() {
+        if (packs != null) {
+            for (Pack pack : packs) {
+                pack.close();
+            }
+            packs = null;
+        }
+    }
+
+    /** Delete a blob file. A packed blob is kept until the next pack. */
+    public void removeBlob(ObjectId hashCode) {
+        File file = blobFile(hashCode);
+        if (file.exists()) {
+            file.delete();
+        }
+    }
+
+    /** Merge 2 blob files changed from the base line by line and save to work dir.
+     *  BASEVER is null if the file is not in the split point, then both versions are
+     *  compared with an empty file. Return whether there is a conflict.
+     */
+    public boolean mergeBlobs(String fileName, ObjectId baseVer, ObjectId headVer,
+                              ObjectId givenVer) {
+        String baseContent = baseVer == null ? "" : getBlobAsString(baseVer);
+        Diff3.Result result = Diff3.merge(baseContent,
+                getBlobAsString(headVer), getBlobAsString(givenVer));
+        writeContents(join(workDir, fileName), result.text());
+        return result.conflicted();
+    }
+
+    /** Merge 1 conflict blob file ONLY in HEAD and save to word dir. */
+    public void mergeSingleBlob(String fileName, ObjectId ver) {
+        String newContent = Diff3.HEAD_MARKER + getBlobAsString(ver)
+                + Diff3.SEPARATOR_MARKER + Diff3.END_MARKER;
+        writeContents(join(workDir, fileName), newContent);
     }
 }
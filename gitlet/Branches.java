@@ -10,47 +10,60 @@ import static gitlet.Utils.*;
  * The Field branches is a TreeMap of the branches.
  * Key: name of the branch; Value: the Hash Value of current commit of this branch.
  * The Field currBranch is the name of the current branch.
- * All setting methods will automatically serialise the Fields and save to disk.
+ * The Hash Values are kept as ObjectIds.
+ * The setting methods only change the Fields in memory, flush() saves them to disk.
  */
 public class Branches {
 
 
-    /** The file that saves the Serialised Field: Branches. */
-    public static final File BRANCHES_FILE = join(Repository.OBJ_DIR, "branches");
-
-    /** The file that saves the Serialised Field: Current Branch. */
-    public static final File CURR_BRANCH_FILE = join(Repository.OBJ_DIR, "current_branch");
-
     /** The default branch. */
     public static final String DEFAULT_BRANCH = "master";
 
+    /** The file that saves the encoded Field: Branches. */
+    private final File branchesFile;
+
+    /** The file that saves the encoded Field: Current Branch. */
+    private final File currBranchFile;
+
     /**
      * A TreeMap of Branches.
      * Key: name of the branch; Value: the Hash Value of current commit of this branch.
      */
-    private TreeMap<String, String> branches;
+    private TreeMap<String, ObjectId> branches;
 
     /** The name of the current branch. */
     private String currBranch;
 
-    /** The Filed branches, currBranch are generated by de-serialising from a disk file,
-     * or generate a new one if not exist.
+    /** Whether the Field branches has changed since it was read. */
+    private boolean branchesChanged;
+
+    /** Whether the Field currBranch has changed since it was read. */
+    private boolean currBranchChanged;
+
+    /** The Filed branches, currBranch are generated by decoding the disk files
+     * of the repository of GITLETDIR, or generate a new one if not exist.
+     * A file which exists but cannot be read is an error, it is never replaced silently.
+     * A Serialised file of an old repository is written again by ObjectCodec.
      */
-    public Branches() {
-        try {
-            this.branches = (TreeMap<String, String>) readObject(BRANCHES_FILE, TreeMap.class);
-            this.currBranch = readObject(CURR_BRANCH_FILE, String.class);
-        } catch (IllegalArgumentException e) {
+    public Branches(File gitletDir) {
+        this.branchesFile = branchesFile(gitletDir);
+        this.currBranchFile = join(Repository.objDir(gitletDir), "current_branch");
+        if (branchesFile.exists() || currBranchFile.exists()) {
+            this.branches = ObjectCodec.readHashMap(branchesFile);
+            this.currBranch = ObjectCodec.readString(currBranchFile);
+            branchesChanged = !ObjectCodec.isEncoded(branchesFile);
+            currBranchChanged = !ObjectCodec.isEncoded(currBranchFile);
+        } else {
             this.branches = new TreeMap<>();
             this.branches.put(DEFAULT_BRANCH, Commit.INIT_HASH);
             this.currBranch = DEFAULT_BRANCH;
-            saveBranches();
-            saveCurrentBranches();
+            branchesChanged = true;
+            currBranchChanged = true;
         }
     }
 
     /** Return the Hash Code of the current Commit of current Branch as well as HEAD. */
-    public String getHead() {
+    public ObjectId getHead() {
         if (!branches.containsKey(currBranch)) {
             throw error("The HEAD point error!");
         }
@@ -63,10 +76,7 @@ public class Branches {
     }
 
     /** Get the current commit with the branch name */
-    public String getBranchPoint(String branchName) {
-        if (!branches.containsKey(branchName)) {
-            return null;
-        }
+    public ObjectId getBranchPoint(String branchName) {
         return branches.get(branchName);
     }
 
@@ -80,39 +90,44 @@ public class Branches {
         return branches.containsKey(branchName);
     }
 
-    /** Update the Hash Code of the current Commit of current Branch as well as HEAD.
-     *  Serialise the Field branches and save it to disk.
-     */
-    public void setCurrentHead(String newHashCode) {
+    /** Update the Hash Code of the current Commit of current Branch as well as HEAD. */
+    public void setCurrentHead(ObjectId newHashCode) {
         branches.put(currBranch, newHashCode);
-        saveBranches();
+        branchesChanged = true;
     }
 
-    /** Update branches, and auto serialise the branches and save it to the disk. */
-    public void setBranches(String branchName, String hashCode) {
+    /** Update branches. */
+    public void setBranches(String branchName, ObjectId hashCode) {
         branches.put(branchName, hashCode);
-        saveBranches();
+        branchesChanged = true;
     }
 
-    /** Update the currBranch, and auto serialise and save it to the disk. */
+    /** Update the currBranch. */
     public void setCurrBranch(String branchName) {
         currBranch = branchName;
-        saveCurrentBranches();
+        currBranchChanged = true;
     }
 
-    /** Rm a branch, auto serialise the Filed branches and save to disk. */
+    /** Rm a branch. */
     public void removeBranch(String branchName) {
         branches.remove(branchName);
-        saveBranches();
+        branchesChanged = true;
     }
 
-    /** Serialise the Field branches and write to disk. */
-    public void saveBranches() {
-        writeObject(BRANCHES_FILE, branches);
+    /** Return the branches file of the repository of GITLETDIR. */
+    static File branchesFile(File gitletDir) {
+        return join(Repository.objDir(gitletDir), "branches");
     }
 
-    /** Serialise the Field currBranch and write to disk. */
-    public void saveCurrentBranches() {
-        writeObject(CURR_BRANCH_FILE, currBranch);
+    /** Encode the changed Fields branches && currBranch and write them by the JOURNAL. */
+    public void flush(Journal journal) {
+        if (branchesChanged) {
+            journal.write(branchesFile, ObjectCodec.encodeHashMap(branches));
+            branchesChanged = false;
+        }
+        if (currBranchChanged) {
+            journal.write(currBranchFile, ObjectCodec.encodeString(currBranch));
+            currBranchChanged = false;
+        }
     }
 }
@@ -0,0 +1,224 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TreeSet;
+
+import static gitlet.Utils.*;
+
+/**
+ * This class saves a Bloom filter for every commit of the CommitGraph, of the paths which
+ * are changed by the commit against its first parent, with all the directories above them.
+ * So a path limited log skips most commits without reading their objects and trees.
+ * The filter of a commit has BITS_PER_PATH bits for each changed path; a commit which
+ * changes more than MAX_PATHS paths has no filter, and may have changed any path.
+ * Only the filters of the commits which a path limited log walks are computed, when they are
+ * first used, so the commits of the other branches are never diffed.
+ * The file starts with MAGIC and VERSION, followed by a record for every computed filter in
+ * the order they were computed: the 20-byte Hash Code of the commit, the number of longs of
+ * the filter (TOO_MANY if it has no filter) and the longs.
+ * Like the CommitGraph, it is only a cache: a partly appended record is dropped.
+ */
+class ChangedPaths {
+
+    /** The bytes at the beginning of the file. */
+    private static final byte[] MAGIC = {'C', 'P', 'B', 'F'};
+
+    /** The version of the format of the file. */
+    private static final int VERSION = 2;
+
+    /** The length of the header of the file. */
+    private static final int HEADER_LENGTH = MAGIC.length + 4;
+
+    /** The number of bits of a filter for each changed path. */
+    private static final int BITS_PER_PATH = 10;
+
+    /** The number of bits set in a filter for a path. */
+    private static final int BLOOM_HASHES = 7;
+
+    /** The maximum number of changed paths of a commit which has a filter. */
+    private static final int MAX_PATHS = 512;
+
+    /** The length of the filter of a commit which changes too many paths. */
+    private static final int TOO_MANY = -1;
+
+    /** The file that saves the filters. */
+    private final File pathsFile;
+
+    /** The graph which numbers the commits. */
+    private final CommitGraph graph;
+
+    /** The commits, to read the trees of the commits whose filters are missing. */
+    private final Commit commits;
+
+    /** The trees of the commits, which are diffed. */
+    private final Tree trees;
+
+    /** The filters of the commits, by their Hash Codes, null if TOO_MANY. */
+    private final HashMap<ObjectId, long[]> filters = new HashMap<>();
+
+    /** The commits whose filters are computed since the file was read, in order. */
+    private final List<ObjectId> unsaved = new ArrayList<>();
+
+    /** The length of the complete records in the file. */
+    private long savedLength;
+
+    /** The filters of the COMMITS numbered by the GRAPH, whose TREES are diffed, are
+     *  generated by reading the file of the repository of GITLETDIR, or empty if not exist.
+     */
+    ChangedPaths(File gitletDir, CommitGraph graph, Commit commits, Tree trees) {
+        this.pathsFile = join(Repository.objDir(gitletDir), "changed_paths");
+        this.graph = graph;
+        this.commits = commits;
+        this.trees = trees;
+        if (!pathsFile.exists()) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(readContents(pathsFile));
+        byte[] magic = new byte[MAGIC.length];
+        if (buffer.remaining() >= HEADER_LENGTH) {
+            buffer.get(magic);
+        }
+        if (!Arrays.equals(magic, MAGIC) || buffer.getInt() != VERSION) {
+            pathsFile.delete(); // it is only a cache, build it again.
+            return;
+        }
+        byte[] hash = new byte[ObjectId.LENGTH];
+        savedLength = HEADER_LENGTH;
+        while (buffer.remaining() >= ObjectId.LENGTH + 4) {
+            buffer.get(hash);
+            int length = buffer.getInt();
+            if (length < TOO_MANY || buffer.remaining() < (long) Long.BYTES * Math.max(length, 0)) {
+                break; // a partly appended record.
+            }
+            long[] filter = null;
+            if (length != TOO_MANY) {
+                filter = new long[length];
+                for (int i = 0; i < length; i++) {
+                    filter[i] = buffer.getLong();
+                }
+            }
+            filters.put(ObjectId.fromBytes(hash), filter);
+            savedLength = buffer.position();
+        }
+    }
+
+    /** Return whether the commit number N may have changed PATH, a file or a directory.
+     *  A false result is always right.
+     */
+    boolean mayHaveChanged(int n, String path) {
+        ObjectId id = graph.getHash(n);
+        if (!filters.containsKey(id)) {
+            filters.put(id, filterOf(n));
+            unsaved.add(id);
+        }
+        long[] filter = filters.get(id);
+        if (filter == null) {
+            return true;
+        }
+        for (int bit : bitsOf(path, filter.length * Long.SIZE)) {
+            if ((filter[bit / Long.SIZE] & (1L << (bit % Long.SIZE))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Return the filter of the commit number N, computed from its tree and the first parent's,
+     *  or null if it changes too many paths.
+     */
+    private long[] filterOf(int n) {
+        Commit.Cmt commit = commits.getCommit(graph.getHash(n));
+        int parent = graph.getFirstParent(n);
+        ObjectId parentTree = parent == CommitGraph.NONE ? Tree.EMPTY_HASH
+                : Commit.getTreeHash(commits.getCommit(graph.getHash(parent)));
+        TreeSet<String> paths = new TreeSet<>();
+        trees.diff(parentTree, Commit.getTreeHash(commit), (path, oldHash, newHash) -> {
+            for (int end = path.indexOf(Tree.SEPARATOR); end >= 0;
+                 end = path.indexOf(Tree.SEPARATOR, end + 1)) {
+                paths.add(path.substring(0, end));
+            }
+            paths.add(path);
+        });
+        if (paths.size() > MAX_PATHS) {
+            return null;
+        }
+        int longs = Math.max(1, (paths.size() * BITS_PER_PATH + Long.SIZE - 1) / Long.SIZE);
+        long[] filter = new long[longs];
+        for (String path : paths) {
+            for (int bit : bitsOf(path, longs * Long.SIZE)) {
+                filter[bit / Long.SIZE] |= 1L << (bit % Long.SIZE);
+            }
+        }
+        return filter;
+    }
+
+    /** Return the BLOOM_HASHES bits of PATH in a filter of BITS bits, by double hashing. */
+    private static int[] bitsOf(String path, int bits) {
+        int h1 = path.hashCode();
+        int h2 = fnv(path);
+        int[] result = new int[BLOOM_HASHES];
+        for (int i = 0; i < BLOOM_HASHES; i++) {
+            result[i] = Math.floorMod(h1 + i * h2, bits);
+        }
+        return result;
+    }
+
+    /** Return the FNV-1a hash of the UTF-8 bytes of PATH, the second hash of the filters. */
+    private static int fnv(String path) {
+        int hash = 0x811c9dc5;
+        for (byte b : path.getBytes(StandardCharsets.UTF_8)) {
+            hash = (hash ^ (b & 0xff)) * 0x01000193;
+        }
+        return hash | 1; // odd, so the bits of a path are all different.
+    }
+
+    /** Append the records of the filters computed since the file was read. */
+    void flush() {
+        if (unsaved.isEmpty()) {
+            return;
+        }
+        int length = HEADER_LENGTH;
+        for (ObjectId id : unsaved) {
+            long[] filter = filters.get(id);
+            length += ObjectId.LENGTH + 4 + (filter == null ? 0 : filter.length * Long.BYTES);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        try (FileChannel channel = FileChannel.open(pathsFile.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            long size = channel.size();
+            if (size < HEADER_LENGTH || savedLength < HEADER_LENGTH) {
+                buffer.put(MAGIC).putInt(VERSION);
+                size = 0;
+            } else { // drop a partly appended record.
+                size = savedLength;
+            }
+            for (ObjectId id : unsaved) {
+                long[] filter = filters.get(id);
+                buffer.put(id.toBytes());
+                buffer.putInt(filter == null ? TOO_MANY : filter.length);
+                if (filter != null) {
+                    for (long bits : filter) {
+                        buffer.putLong(bits);
+                    }
+                }
+            }
+            buffer.flip();
+            channel.truncate(size);
+            channel.write(buffer, size);
+            channel.force(true);
+            savedLength = size + buffer.limit();
+        } catch (IOException e) {
+            throw error("Cannot write the changed paths: %s", e.getMessage());
+        }
+        unsaved.clear();
+    }
+}
@@ -0,0 +1,194 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static gitlet.CommandException.RefusedException;
+import static gitlet.Utils.*;
+
+/**
+ * This class materializes the files of a commit in the work dir.
+ * The whole file set is planned first: the files whose Hash Code in the work dir
+ * is the same as in the commit are skipped, by the stat cache.
+ * The files which leave the tree are deleted first, so a file may become a directory
+ * and a directory a file. Then the blobs of the other files are written concurrently
+ * by a pool of THREADS_PROPERTY threads, the number of processors by default.
+ * If a write fails, the files after it in order are not written, as if the files
+ * were written one by one, and the error of the failed file is thrown.
+ * The files written so far are recorded in the stat cache before that.
+ */
+class Checkout {
+
+    /** The name of the system property to set the number of the threads. */
+    static final String THREADS_PROPERTY = "gitlet.threads";
+
+    /** The minimum number of files to write by the pool, fewer are written in this thread. */
+    static final int PARALLEL_THRESHOLD = 16;
+
+    /** The work dir to write. */
+    private final File workDir;
+
+    /** The blobs to write. */
+    private final Blobs blobs;
+
+    /** The stat cache of the work dir. */
+    private final Index index;
+
+    /** The planned files to write. Key: file name; Value: Hash Code of the blob. */
+    private final TreeMap<String, ObjectId> writes = new TreeMap<>();
+
+    /** The planned files to delete. */
+    private final TreeSet<String> deletes = new TreeSet<>();
+
+    /** The constructor of an empty plan of the work dir WORKDIR. */
+    Checkout(File workDir, Blobs blobs, Index index) {
+        this.workDir = workDir;
+        this.blobs = blobs;
+        this.index = index;
+    }
+
+    /** Plan to write the blob of a file, if the file in the work dir is not the same.
+     *  A directory in the place of the file is always replaced.
+     */
+    void write(String fileName, ObjectId hashCode) {
+        if (!hashCode.equals(index.getHash(fileName))) {
+            writes.put(fileName, hashCode);
+        }
+    }
+
+    /** Plan to delete a file. */
+    void delete(String fileName) {
+        deletes.add(fileName);
+    }
+
+    /** Delete and write the planned files, and record them in the stat cache.
+     *  Refuse the plan before any change if a file to write is in the way of
+     *  a file or a directory which is not deleted by the plan.
+     */
+    void run() {
+        for (String fileName : writes.keySet()) {
+            if (isObstructed(fileName)) {
+                throw new RefusedException("There is an untracked file in the way; "
+                        + "delete it, or add and commit it first.");
+            }
+        }
+
+        for (String fileName : deletes) {
+            Repository.deleteWorkFile(workDir, fileName);
+            index.remove(fileName);
+        }
+        writeAll(new ArrayList<>(writes.keySet()));
+    }
+
+    /** Return whether a file which is not deleted by the plan is in the way of FILENAME:
+     *  a file at one of its parent dirs, or any file under a directory at its path.
+     */
+    private boolean isObstructed(String fileName) {
+        for (int i = fileName.indexOf('/'); i >= 0; i = fileName.indexOf('/', i + 1)) {
+            String parent = fileName.substring(0, i);
+            if (join(workDir, parent).isFile() && !deletes.contains(parent)) {
+                return true;
+            }
+        }
+        File file = join(workDir, fileName);
+        if (!file.isDirectory()) {
+            return false;
+        }
+        for (String child : workFilenamesIn(file)) {
+            if (!deletes.contains(fileName + "/" + child)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Write the blob of a planned file, after the empty directory in its place if any. */
+    private void writeFile(String fileName) {
+        File file = join(workDir, fileName);
+        if (file.isDirectory()) {
+            file.delete();
+        }
+        file.getParentFile().mkdirs();
+        blobs.copyBlob(writes.get(fileName), file);
+    }
+
+    /** Write the planned FILENAMES, by the pool if there are enough of them,
+     *  and record every written file in the stat cache.
+     *  After the first failed file in order, the files which are not started yet are
+     *  cancelled, and its error is thrown once the started ones are finished.
+     */
+    private void writeAll(List<String> fileNames) {
+        int threads = Integer.getInteger(THREADS_PROPERTY,
+                Runtime.getRuntime().availableProcessors());
+        if (threads <= 1 || fileNames.size() < PARALLEL_THRESHOLD) {
+            for (String fileName : fileNames) {
+                writeFile(fileName);
+                index.setHash(fileName, writes.get(fileName));
+            }
+            return;
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads, task -> {
+            Thread thread = new Thread(task);
+            thread.setDaemon(true);
+            return thread;
+        });
+        List<Future<?>> futures = new ArrayList<>();
+        RuntimeException first = null;
+        try {
+            for (String fileName : fileNames) {
+                futures.add(pool.submit(() -> writeFile(fileName)));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    futures.get(i).get();
+                    index.setHash(fileNames.get(i), writes.get(fileNames.get(i)));
+                } catch (ExecutionException e) {
+                    first = e.getCause() instanceof RuntimeException
+                            ? (RuntimeException) e.getCause()
+                            : new IllegalStateException(e.getCause());
+                    futures.subList(i + 1, futures.size()).forEach(f -> f.cancel(false));
+                    break;
+                }
+            }
+            pool.shutdown();
+            if (first != null && pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS)) {
+                for (int i = 0; i < futures.size(); i++) {
+                    if (isWritten(futures.get(i))) {
+                        index.setHash(fileNames.get(i), writes.get(fileNames.get(i)));
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw error("Interrupted when writing the work dir.");
+        } finally {
+            pool.shutdownNow();
+        }
+        if (first != null) {
+            throw first;
+        }
+    }
+
+    /** Return whether the write of a finished FUTURE has succeeded. */
+    private static boolean isWritten(Future<?> future) {
+        if (future.isCancelled()) {
+            return false;
+        }
+        try {
+            future.get();
+            return true;
+        } catch (ExecutionException | InterruptedException e) {
+            return false;
+        }
+    }
+}
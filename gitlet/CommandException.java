@@ -0,0 +1,41 @@
+package gitlet;
+
+/**
+ * An exception indicating a command which is refused by its operands or the repository.
+ * Unlike the other GitletExceptions, it is not a fault of Gitlet: the command line prints
+ * the result of .getMessage() and exits normally. The subclasses tell why it is refused.
+ */
+public class CommandException extends GitletException {
+
+    /** A CommandException MSG as its message. */
+    CommandException(String msg) {
+        super(msg);
+    }
+
+    /** The command or its operands are not valid. */
+    public static class UsageException extends CommandException {
+
+        /** A UsageException MSG as its message. */
+        UsageException(String msg) {
+            super(msg);
+        }
+    }
+
+    /** A repository, commit, branch or file that the command names does not exist. */
+    public static class NotFoundException extends CommandException {
+
+        /** A NotFoundException MSG as its message. */
+        NotFoundException(String msg) {
+            super(msg);
+        }
+    }
+
+    /** The command cannot run in the current state of the repository or the work dir. */
+    public static class RefusedException extends CommandException {
+
+        /** A RefusedException MSG as its message. */
+        RefusedException(String msg) {
+            super(msg);
+        }
+    }
+}
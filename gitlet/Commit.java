@@ -2,212 +2,487 @@ package gitlet;
 
 
 import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
-import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.TreeMap;
+import java.util.function.Predicate;
 import java.util.Date;
 
+import static gitlet.CommandException.UsageException;
 import static gitlet.Utils.*;
 
 /**
  * This class manages the commits.
- * The Field commits is a TreeMap of the commits.
- * Key: hash value of the commit; Value: the point to the Commit Instance.
+ * Every commit is an immutable object saved in its own file under the commit directory,
+ * sharded by the first 2 characters of its Hash Code, e.g. commit/ab/cdef...
+ * Commits are loaded lazily by Hash Code and cached in the Field commits.
+ * The Hash Codes are ObjectIds, which are formatted as hex Strings only to name the files
+ * of the commits and to hash a new commit.
+ * A commit id given by the user is a hex String, which may be abbreviated.
  */
 public class Commit {
 
-    /** The file that saves the Serialised Field: Commits. */
-    public static final File COMMITS_FILE = join(Repository.OBJ_DIR, "commits");
+    /** The minimum length of an abbreviated Hash Code. */
+    public static final int MIN_PREFIX_LENGTH = 4;
 
-    /** The file that saves the Serialised Field: Short Commits. */
-    public static final File SHORT_COMMITS_FILE = join(Repository.OBJ_DIR, "short_commits");
+    /** The format of the Date Time of the commits, which is immutable and thread-safe. */
+    public static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter
+            .ofPattern("EEE MMM d HH:mm:ss yyyy Z", Locale.US)
+            .withZone(ZoneId.systemDefault());
 
     /** The Hash code of the init commit */
-    public static final String INIT_HASH = "000000000000000000000000000000";
+    public static final ObjectId INIT_HASH = ObjectId.fromBytes(new byte[ObjectId.LENGTH]);
+
+    /** The Hash code of the init commit in old repositories. */
+    private static final String LEGACY_INIT_HASH = "000000000000000000000000000000";
 
     /** The Message of the init commit */
     public static final String INIT_MSG = "initial commit";
 
     /**
-     * A TreeMap of Commits. Every Commit has a hash code.
-     * The Map saves the hash codes and the points of the instance.
+     * A cache of the Commits which have been loaded from disk.
      * Key: hash value of the commit; Value: the point to the Commit Instance.
      */
-    private TreeMap<String, Cmt> commits;
+    private final Map<ObjectId, Cmt> commits = new HashMap<>();
+
+    /** The index of the commit messages, created by getMessageIndex(). */
+    private MessageIndex messageIndex;
+
+    /** The .gitlet directory of the repository. */
+    private final File gitletDir;
+
+    /** The directory that saves the commit objects. */
+    private final File commitDir;
+
+    /** The trees of the repository, which hold the files of the commits. */
+    private final Tree trees;
 
-    /**
-     * A TreeMap of Short Hash Codes.
-     * Key: first 6 characters of the Hash Code; Value: Hash Code of the commits..
-     */
-    private TreeMap<String, String> shortCommits;
 
     /** Cmt is a support class which respects a commit. */
     protected static class Cmt implements Serializable {
 
+        /** Kept the same as before, so the commits in old repositories can be read. */
+        private static final long serialVersionUID = 416449462398171484L;
+
+        /** The Fields of a Serialised commit of an old repository,
+         *  whose Hash Codes are hex Strings. They are read by readObject into the Fields,
+         *  which are not final for this reason.
+         */
+        private static final ObjectStreamField[] serialPersistentFields = {
+            new ObjectStreamField("message", String.class),
+            new ObjectStreamField("timeStamp", long.class),
+            new ObjectStreamField("hash", String.class),
+            new ObjectStreamField("tree", TreeMap.class),
+            new ObjectStreamField("treeHash", String.class),
+            new ObjectStreamField("parent", String[].class),
+        };
+
         /** The message of this Commit. */
-        private final String message;
+        private String message;
 
         /** The timeStamp of this Commit. */
-        private final long timeStamp;
+        private long timeStamp;
 
         /** The hash of this Commit. */
-        private final String hash;
+        private ObjectId hash;
 
-        /** The File Tree of this Commit.
+        /** The File Tree of a Commit in an old repository.
          * Key is the file name, Value is the Hash Code.
+         * It is only read when an old repository is migrated, and null otherwise.
          */
-        private final TreeMap<String, String> tree;
+        private TreeMap<String, String> tree;
+
+        /** The Hash Code of the root tree object of this Commit. */
+        private ObjectId treeHash;
 
         /** The Hash Value of the parent commit of this Commit*/
-        private final String[] parent;
+        private ObjectId[] parent;
 
-        /** The constructor for only one parent. */
-        public Cmt(String message, long timeStamp, String hash,
-                   TreeMap<String, String> tree, String parent) {
+        /** The constructor for a commit which may have a second parent. */
+        private Cmt(String message, long timeStamp, ObjectId hash,
+                    ObjectId treeHash, ObjectId parent, ObjectId secondParent) {
             this.message = message;
             this.timeStamp = timeStamp;
             this.hash = hash;
-            this.tree = tree;
-            this.parent = new String[2];
-            this.parent[0] = parent;
+            this.tree = null;
+            this.treeHash = treeHash;
+            this.parent = new ObjectId[]{parent, secondParent};
         }
 
         /** The constructor for the init commit. */
-        private Cmt(String message, long timeStamp, String hash) {
-            this.message = message;
-            this.timeStamp = timeStamp;
-            this.hash = hash;
-            this.tree = new TreeMap<>();
-            this.parent = new String[]{null, null};
+        private Cmt(String message, long timeStamp, ObjectId hash) {
+            this(message, timeStamp, hash, Tree.EMPTY_HASH, null, null);
+        }
+
+        /** Read a Serialised commit of an old repository, whose Hash Codes are hex Strings.
+         */
+        private void readObject(ObjectInputStream in)
+                throws IOException, ClassNotFoundException {
+            ObjectInputStream.GetField fields = in.readFields();
+            String[] parents = (String[]) fields.get("parent", null);
+            this.message = (String) fields.get("message", null);
+            this.timeStamp = fields.get("timeStamp", 0L);
+            this.hash = legacyId((String) fields.get("hash", null));
+            Map<?, ?> files = (Map<?, ?>) fields.get("tree", null);
+            this.tree = files == null ? null : ObjectCodec.copyOf(files, String.class);
+            this.treeHash = legacyId((String) fields.get("treeHash", null));
+            this.parent = new ObjectId[]{legacyId(parents[0]), legacyId(parents[1])};
+        }
+
+        /** Return the commit encoded by ObjectCodec: the message, the time stamp,
+         *  the Hash Codes of itself and its root tree, and the number of its parents
+         *  and their Hash Codes.
+         */
+        private byte[] encode() {
+            ObjectCodec.Output out = new ObjectCodec.Output(ObjectCodec.COMMIT)
+                    .writeString(message).writeLong(timeStamp)
+                    .writeHash(hash).writeHash(treeHash);
+            int count = parent[1] != null ? 2 : parent[0] != null ? 1 : 0;
+            out.writeCount(count);
+            for (int i = 0; i < count; i++) {
+                out.writeHash(parent[i]);
+            }
+            return out.toByteArray();
+        }
+
+        /** Return the commit decoded from IN. */
+        private static Cmt decode(ObjectCodec.Input in) {
+            String message = in.readString();
+            long timeStamp = in.readLong();
+            ObjectId hash = in.readHash();
+            ObjectId treeHash = in.readHash();
+            ObjectId[] parents = new ObjectId[2];
+            int count = in.readCount();
+            if (count > parents.length) {
+                throw new IllegalArgumentException("too many parents");
+            }
+            for (int i = 0; i < count; i++) {
+                parents[i] = in.readHash();
+            }
+            return new Cmt(message, timeStamp, hash, treeHash, parents[0], parents[1]);
         }
     }
 
-    /** The Filed commits is generated by de-serialising from a disk file,
-     * or generate a new one if not exist.
+    /** The commits of the repository of GITLETDIR are loaded lazily from its commit directory,
+     * and their files from the TREES.
+     * Generate the init commit if it is a new repository,
+     * or split the commits of an old repository into commit objects.
+     * The file of the 8-character abbreviations of an old repository is no longer used.
      */
-    public Commit() {
-        try {
-            this.commits = (TreeMap<String, Cmt>)
-                    readObject(COMMITS_FILE, TreeMap.class);
-            this.shortCommits = (TreeMap<String, String>)
-                    readObject(SHORT_COMMITS_FILE, TreeMap.class);
-        } catch (IllegalArgumentException e) {
-            this.commits = new TreeMap<>();
-            this.shortCommits = new TreeMap<>();
+    public Commit(File gitletDir, Tree trees) {
+        this.gitletDir = gitletDir;
+        this.commitDir = commitDir(gitletDir);
+        this.trees = trees;
+        join(Repository.objDir(gitletDir), "short_commits").delete();
+        if (commitDir.exists()) {
+            return;
+        }
+        commitDir.mkdir();
+        if (legacyCommitsFile().exists()) {
+            migrateLegacyCommits();
+        } else {
             newInitCommit();
         }
     }
 
-    /** Return the commit by Hash Code */
-    public Cmt getCommit(String hashCode) {
-        hashCode = getHashCode(hashCode);
-        if (commits.containsKey(hashCode)) {
-            return commits.get(hashCode);
+    /** Return the directory of the commit objects of the repository of GITLETDIR. */
+    static File commitDir(File gitletDir) {
+        return join(gitletDir, "commit");
+    }
+
+    /** Return the file that saved the whole Serialised TreeMap of commits
+     *  in an old repository.
+     */
+    private File legacyCommitsFile() {
+        return join(Repository.objDir(gitletDir), "commits");
+    }
+
+    /** Return the commit by Hash Code, may return null if it does not exist. */
+    public Cmt getCommit(ObjectId hashCode) {
+        Cmt commit = commits.get(hashCode);
+        if (commit == null) {
+            commit = readCommit(hashCode);
+            if (commit != null) {
+                commits.put(hashCode, commit);
+            }
+        }
+        return commit;
+    }
+
+    /** Read a commit object by its Hash Code without caching it,
+     *  so a walk of the whole history does not keep every commit in memory.
+     *  May return null if it does not exist.
+     */
+    public Cmt readCommit(ObjectId hashCode) {
+        return readCommit(commitDir, hashCode);
+    }
+
+    /** Read a commit object by its Hash Code from the commit directory DIR,
+     *  which may be of another repository. May return null if it does not exist.
+     */
+    static Cmt readCommit(File dir, ObjectId hashCode) {
+        File file = objectFile(dir, hashCode.toHex());
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            return ObjectCodec.read(file, ObjectCodec.COMMIT, Cmt::decode, Cmt.class);
+        } catch (IllegalArgumentException e) {
+            throw error("The commit %s is corrupted: %s", hashCode, e.getMessage());
         }
-        return null;
     }
 
     /** Return the commit[] by message, may return null if it is empty. */
     public Cmt[] getCommit(boolean isMsg, String message) {
+        return getCommits(getMessageIndex().find(message));
+    }
 
-        ArrayList<Cmt> res = new ArrayList<>();
-        for (String hashCode: commits.keySet()) {
-            Cmt commit = getCommit(hashCode);
-            if (commit.message.equals(message)) {
-                res.add(commit);
-            }
-        }
-        if (res.isEmpty()) {
+    /** Return the commit[] whose message has PATTERN, or starts with it if PATTERN
+     *  starts with "^", may return null if it is empty.
+     */
+    public Cmt[] grepCommits(String pattern) {
+        return getCommits(getMessageIndex().grep(pattern));
+    }
+
+    /** Return the commits of the Hash Codes, may return null if it is empty. */
+    private Cmt[] getCommits(Collection<ObjectId> hashCodes) {
+        if (hashCodes.isEmpty()) {
             return null;
         }
+        ArrayList<Cmt> res = new ArrayList<>();
+        for (ObjectId hashCode : hashCodes) {
+            res.add(getCommit(hashCode));
+        }
         return res.toArray(new Cmt[0]);
     }
 
-    /** Return all commits, may return null if it is empty.*/
+    /** Return the Field messageIndex, create it when first used. */
+    private MessageIndex getMessageIndex() {
+        if (messageIndex == null) {
+            messageIndex = new MessageIndex(gitletDir, this);
+        }
+        return messageIndex;
+    }
+
+    /** Return all commits ordered by Hash Code, may return null if it is empty.*/
     public Cmt[] getAllCommits() {
-        return commits.values().toArray(new Cmt[0]);
+        ArrayList<Cmt> res = new ArrayList<>();
+        for (ObjectId hashCode : getAllHashCodes()) {
+            res.add(getCommit(hashCode));
+        }
+        return res.toArray(new Cmt[0]);
+    }
+
+    /** Return the Hash Codes of all commits in order by walking the shard directories. */
+    List<ObjectId> getAllHashCodes() {
+        ArrayList<ObjectId> res = new ArrayList<>();
+        forEachHashCode(res::add);
+        return res;
+    }
+
+    /** Give the Hash Codes of all commits in order to ACTION, until it returns false.
+     *  The shard directories are listed one by one, only when they are reached.
+     */
+    void forEachHashCode(Predicate<ObjectId> action) {
+        String[] shards = commitDir.list();
+        if (shards == null) {
+            return;
+        }
+        Arrays.sort(shards);
+        for (String shard : shards) {
+            List<String> files = plainFilenamesIn(join(commitDir, shard));
+            if (files == null) {
+                continue;
+            }
+            for (String file : files) {
+                if (!action.test(ObjectId.fromHex(shard + file))) {
+                    return;
+                }
+            }
+        }
     }
 
     /** Return if the commits has a commit with the hashCode. */
-    public boolean hasCommit(String hashCode) {
-        return commits.containsKey(getHashCode(hashCode));
+    public boolean hasCommit(ObjectId hashCode) {
+        return commits.containsKey(hashCode) || getCommitFile(hashCode).isFile();
+    }
+
+    /** Create a new commit and save it to the disk as a commit object. */
+    public ObjectId newCommit(String msg, ObjectId treeHash, ObjectId parent) {
+        return newCommit(msg, treeHash, parent, null);
     }
 
-    /** Create a new commit and add to the Field commits.
-     *  This method will automatically serialise the Field commits
-     *  and save it to the disk.
+    /** Create a new commit which may have a second parent,
+     *  and save it to the disk as a commit object.
+     *  Its Hash Code is the sha1 of the hex Strings of the Hash Codes and its Fields.
      */
-    public String newCommit(String msg, TreeMap<String, String> tree, String parent) {
+    public ObjectId newCommit(String msg, ObjectId treeHash,
+                              ObjectId parent, ObjectId secondParent) {
         long ts = (new Date()).getTime();
-        String hashCode = sha1(String.valueOf(tree.hashCode()), msg, parent, String.valueOf(ts));
-        Cmt commit = new Cmt(msg, ts, hashCode, tree, parent);
-        shortCommits.put(Commit.getShortHashCode(hashCode), hashCode);
-        commits.put(hashCode, commit);
-        saveCommits();
+        ObjectId hashCode = ObjectId.fromHex(secondParent == null
+                ? sha1(treeHash.toHex(), msg, parent.toHex(), String.valueOf(ts))
+                : sha1(treeHash.toHex(), msg, parent.toHex(), secondParent.toHex(),
+                        String.valueOf(ts)));
+        getMessageIndex().add(hashCode, msg);
+        saveCommit(new Cmt(msg, ts, hashCode, treeHash, parent, secondParent));
         return hashCode;
     }
 
-    /** Create an empty init commit and add to the Field commits */
+    /** Create an empty init commit and save it to the disk. */
     public void newInitCommit() {
-        Cmt commit = new Cmt(INIT_MSG, 0, INIT_HASH);
-        shortCommits.put(Commit.getShortHashCode(INIT_HASH), INIT_HASH);
-        commits.put(INIT_HASH, commit);
-        saveCommits();
+        getMessageIndex().add(INIT_HASH, INIT_MSG);
+        saveCommit(new Cmt(INIT_MSG, 0, INIT_HASH));
+    }
+
+    /** Write a commit object to its shard, commit objects are never overwritten.
+     */
+    private void saveCommit(Cmt commit) {
+        commits.put(commit.hash, commit);
+        File file = getCommitFile(commit.hash);
+        if (file.exists()) {
+            return;
+        }
+        file.getParentFile().mkdir();
+        writeAtomic(file, commit.encode());
     }
 
-    /** Serialise the Field commits and write to disk. */
-    public void saveCommits() {
-        writeObject(SHORT_COMMITS_FILE, shortCommits);
-        writeObject(COMMITS_FILE, commits);
+    /** Return the file of a commit object by its Hash Code. */
+    private File getCommitFile(ObjectId hashCode) {
+        return objectFile(commitDir, hashCode.toHex());
     }
 
-    /** Return full hashCode */
-    private String getHashCode(String hashCode) {
-        if (hashCode.length() == 8) {
-            return shortCommits.get(hashCode);
+    /** Split the single Serialised TreeMap of an old repository into commit objects.
+     *  The file tree of every old commit is saved as tree objects.
+     *  The old init commit has a shorter Hash Code, which is replaced by INIT_HASH,
+     *  so the parents of the commits and the branches are updated as well.
+     */
+    private void migrateLegacyCommits() {
+        File legacyFile = legacyCommitsFile();
+        TreeMap<String, Cmt> legacy = ObjectCodec.readLegacyMap(legacyFile, Cmt.class);
+        for (Cmt commit : legacy.values()) {
+            if (commit.hash.equals(INIT_HASH)) {
+                saveCommit(new Cmt(INIT_MSG, 0, INIT_HASH));
+                continue;
+            }
+            ObjectId treeHash = trees.update(Tree.EMPTY_HASH,
+                    ObjectCodec.toHashMap(commit.tree));
+            saveCommit(new Cmt(commit.message, commit.timeStamp, commit.hash, treeHash,
+                    commit.parent[0], commit.parent[1]));
         }
-        return hashCode;
+
+        File branchesFile = Branches.branchesFile(gitletDir);
+        TreeMap<String, String> branches =
+                ObjectCodec.readLegacyMap(branchesFile, String.class);
+        TreeMap<String, ObjectId> ids = new TreeMap<>();
+        branches.forEach((name, hashCode) -> ids.put(name, legacyId(hashCode)));
+        writeAtomic(branchesFile, ObjectCodec.encodeHashMap(ids));
+
+        legacyFile.delete();
     }
 
-    /** Return short hashCode */
-    private static String getShortHashCode(String hashCode) {
-        if (hashCode.length() > 8) {
-            return hashCode.substring(0, 8);
+    /** Encode the Serialised commit objects of an old repository by ObjectCodec. */
+    void encodeObjects() {
+        ObjectCodec.encodeAll(commitDir, file -> readObject(file, Cmt.class).encode());
+    }
+
+    /** Return the ObjectId used by commit objects for a hex Hash Code of an old repository,
+     *  may return null if it is null.
+     */
+    private static ObjectId legacyId(String hashCode) {
+        return LEGACY_INIT_HASH.equals(hashCode) ? INIT_HASH : ObjectId.fromHex(hashCode);
+    }
+
+    /** Return the Hash Code of a commit id given by the user, which is a hex String or
+     *  an abbreviation of at least MIN_PREFIX_LENGTH characters,
+     *  may return null if no commit has it.
+     *  The commit objects of a shard are listed in order, so the commits which start with
+     *  the abbreviation are found by a binary search. If there are many, the command is
+     *  refused by a UsageException.
+     */
+    public ObjectId findCommitId(String hashCode) {
+        if (hashCode.length() < MIN_PREFIX_LENGTH || !isHexPrefix(hashCode)) {
+            return null;
         }
-        return hashCode;
+        if (hashCode.length() == ObjectId.HEX_LENGTH) {
+            ObjectId id = ObjectId.fromHex(hashCode);
+            return hasCommit(id) ? id : null;
+        }
+        String shard = hashCode.substring(0, SHARD_LENGTH);
+        List<String> files = plainFilenamesIn(join(commitDir, shard));
+        if (files == null) {
+            return null;
+        }
+        String rest = hashCode.substring(SHARD_LENGTH);
+        int i = Collections.binarySearch(files, rest);
+        if (i < 0) {
+            i = -i - 1;
+        }
+        if (i >= files.size() || !files.get(i).startsWith(rest)) {
+            return null;
+        }
+        if (i + 1 < files.size() && files.get(i + 1).startsWith(rest)) {
+            throw new UsageException("The commit id " + hashCode + " is ambiguous.");
+        }
+        return ObjectId.fromHex(shard + files.get(i));
+    }
+
+    /** Return if a String is at most a Hash Code of lower case hex characters,
+     *  so it cannot name any other file as a shard or a commit object.
+     */
+    private static boolean isHexPrefix(String hashCode) {
+        return hashCode.length() <= ObjectId.HEX_LENGTH
+                && ObjectId.isHex(hashCode + "0".repeat(ObjectId.HEX_LENGTH - hashCode.length()));
     }
 
     //---------------------------------------------------------------//
     // The properties of a commit.
 
     /** Return the Hash Code of the 1ST parent commit. */
-    public static String getParent(Cmt commit) {
+    public static ObjectId getParent(Cmt commit) {
         return commit.parent[0];
     }
 
     /** Return the Hash Code of the parents commit, may return null if it is the init commit. */
-    public static String[] getParents(Cmt commit) {
-        return commit.parent;
+    public static ObjectId[] getParents(Cmt commit) {
+        return commit.parent.clone();
     }
 
     /** Return the Hash Code of the commit. */
-    public static String getHash(Cmt commit) {
+    public static ObjectId getHash(Cmt commit) {
         return commit.hash;
     }
 
+    /** Return the Hash Code of the root tree of the commit. */
+    public static ObjectId getTreeHash(Cmt commit) {
+        return commit.treeHash;
+    }
+
     /** Return the Hash Code of the file in the commit. */
-    public static String getHashOfFile(Cmt commit, String fileName) {
-        return commit.tree.get(fileName);
+    public ObjectId getHashOfFile(Cmt commit, String fileName) {
+        return trees.getHashOfFile(getTreeHash(commit), fileName);
+    }
+
+    /** Return the time stamp of the commit. */
+    public static long getTimeStamp(Cmt commit) {
+        return commit.timeStamp;
     }
 
     /** Return the Date Time of the commit. */
     public static String getDateTime(Cmt commit) {
-        Date date = new Date(commit.timeStamp);
-        String pattern = "E MMM F HH:mm:ss yyyy Z";
-        SimpleDateFormat simpleDateFormat = new SimpleDateFormat(pattern);
-
-        return simpleDateFormat.format(date);
+        return DATE_FORMAT.format(Instant.ofEpochMilli(commit.timeStamp));
     }
 
     /** Return the message of the commit. */
@@ -215,21 +490,13 @@ public class Commit {
         return commit.message;
     }
 
-    /** Return the file names that tracked in a commit, may return null if it is empty.*/
-    public static String[] getFileNames(Cmt commit) {
-        if (commit.tree == null) {
-            return null;
-        }
-        return commit.tree.keySet().toArray(new String[0]);
+    /** Return the file names that tracked in a commit. */
+    public String[] getFileNames(Cmt commit) {
+        return trees.getFileNames(getTreeHash(commit)).toArray(new String[0]);
     }
 
     /** Return whether the file names is tracked in a commit. */
-    public static boolean commitHasFile(Cmt commit, String fileName) {
-        return commit.tree.containsKey(fileName);
-    }
-
-    /** Add the second parent to a Commit */
-    public static void addParent(Cmt commit, String givenPoint) {
-        commit.parent[1] = givenPoint;
+    public boolean commitHasFile(Cmt commit, String fileName) {
+        return getHashOfFile(commit, fileName) != null;
     }
 }
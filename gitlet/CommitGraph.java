@@ -0,0 +1,366 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import static gitlet.Utils.*;
+
+/**
+ * This class represents the commit graph, which saves the parents and the generation number
+ * of every commit, so the history is walked without reading the commit objects.
+ * The commits are numbered in the order they are added, the parents of a commit are
+ * always added before it, so a parent is referred to by its number.
+ * The generation number of a commit is 1 plus the largest one of its parents,
+ * so an ancestor always has a smaller generation number than its descendants.
+ * The generations are split into epochs of EPOCH_LENGTH generations. Every commit also has
+ * a Bloom filter of the Hash Codes of itself and its ancestors in the same epoch. A path to
+ * an ancestor only goes down the generations, so the ancestors in the epoch of a commit are
+ * exactly the ones in the filters of its parents in that epoch. The filter of a commit is
+ * built from them in O(1), and it never has more than the commits of one epoch, so it does
+ * not fill up as the history grows.
+ * So most commits in the same epoch which are not an ancestor of another one are found
+ * without a walk. For a commit in an older epoch, the filters only prune the walk once it
+ * reaches that epoch.
+ * The graph file starts with MAGIC and VERSION, followed by a record for every commit:
+ * the 20-byte Hash Code, the numbers of the two parents (NONE if absent), the generation
+ * and the Bloom filter.
+ * The Hash Codes are kept as ObjectIds.
+ * The graph is only a cache of the commit objects: the records are appended,
+ * and a commit which is not in the file yet is read from its object and added when first used.
+ */
+class CommitGraph {
+
+    /** The bytes at the beginning of the graph file. */
+    private static final byte[] MAGIC = {'C', 'G', 'P', 'H'};
+
+    /** The version of the format of the graph file. */
+    private static final int VERSION = 3;
+
+    /** The length of the header of the graph file. */
+    private static final int HEADER_LENGTH = MAGIC.length + 4;
+
+    /** The number of bits of the Bloom filter of a commit. */
+    private static final int BLOOM_BITS = 512;
+
+    /** The number of longs of the Bloom filter of a commit. */
+    private static final int BLOOM_LONGS = BLOOM_BITS / Long.SIZE;
+
+    /** The number of bits set in a Bloom filter for a Hash Code. */
+    private static final int BLOOM_HASHES = 3;
+
+    /** The number of generations of an epoch, whose commits a Bloom filter may have. */
+    private static final int EPOCH_LENGTH = 64;
+
+    /** The length of the record of a commit. */
+    private static final int RECORD_LENGTH = ObjectId.LENGTH + 3 * 4 + BLOOM_BITS / Byte.SIZE;
+
+    /** The number of an absent parent. */
+    static final int NONE = -1;
+
+    /** The flag of the commits reachable from the first commit of a walk. */
+    private static final byte FIRST = 1;
+
+    /** The flag of the commits reachable from the second commit of a walk. */
+    private static final byte SECOND = 2;
+
+    /** The file that saves the graph. */
+    private final File graphFile;
+
+    /** The commits, to read the objects which are not in the graph yet. */
+    private final Commit commits;
+
+    /** The Hash Codes of the commits, by their numbers. */
+    private final List<ObjectId> hashes = new ArrayList<>();
+
+    /** The numbers of the commits. Key: Hash Code; Value: number. */
+    private final HashMap<ObjectId, Integer> numbers = new HashMap<>();
+
+    /** The numbers of the two parents of the commits, 2 ints per commit. */
+    private int[] parents = new int[64];
+
+    /** The generation numbers of the commits. */
+    private int[] generations = new int[32];
+
+    /** The Bloom filters of the ancestors of the commits, BLOOM_LONGS longs per commit. */
+    private long[] blooms = new long[32 * BLOOM_LONGS];
+
+    /** The number of the commits which are saved in the graph file. */
+    private int saved;
+
+    /** The graph of the COMMITS is generated by reading the graph file of the repository
+     *  of GITLETDIR, or an empty one if not exist.
+     */
+    CommitGraph(File gitletDir, Commit commits) {
+        this.graphFile = join(Repository.objDir(gitletDir), "commit_graph");
+        this.commits = commits;
+        if (!graphFile.exists()) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(readContents(graphFile));
+        byte[] magic = new byte[MAGIC.length];
+        if (buffer.remaining() >= HEADER_LENGTH) {
+            buffer.get(magic);
+        }
+        if (!Arrays.equals(magic, MAGIC) || buffer.getInt() != VERSION) {
+            graphFile.delete(); // it is only a cache, build it again.
+            return;
+        }
+        byte[] hash = new byte[ObjectId.LENGTH];
+        while (buffer.remaining() >= RECORD_LENGTH) { // a partly appended record is ignored.
+            buffer.get(hash);
+            int n = add(ObjectId.fromBytes(hash),
+                    buffer.getInt(), buffer.getInt(), buffer.getInt());
+            for (int i = n * BLOOM_LONGS; i < (n + 1) * BLOOM_LONGS; i++) {
+                blooms[i] = buffer.getLong();
+            }
+        }
+        saved = hashes.size();
+    }
+
+    /** Add a commit to the arrays, and return its number. Its Bloom filter is empty. */
+    private int add(ObjectId hashCode, int first, int second, int generation) {
+        int n = hashes.size();
+        if (n == generations.length) {
+            generations = Arrays.copyOf(generations, n * 2);
+            parents = Arrays.copyOf(parents, n * 4);
+            blooms = Arrays.copyOf(blooms, n * 2 * BLOOM_LONGS);
+        }
+        hashes.add(hashCode);
+        numbers.put(hashCode, n);
+        parents[2 * n] = first;
+        parents[2 * n + 1] = second;
+        generations[n] = generation;
+        return n;
+    }
+
+    /** Return the number of a commit, add it and its missing ancestors if it is not in the graph.
+     *  The commit objects are read only for the commits which are added.
+     */
+    int numberOf(ObjectId hashCode) {
+        Integer number = numbers.get(hashCode);
+        if (number != null) {
+            return number;
+        }
+        Deque<ObjectId> stack = new ArrayDeque<>();
+        stack.push(hashCode);
+        while (!stack.isEmpty()) {
+            ObjectId curr = stack.peek();
+            if (numbers.containsKey(curr)) {
+                stack.pop();
+                continue;
+            }
+            Commit.Cmt commit = commits.getCommit(curr);
+            if (commit == null) {
+                throw error("The commit %s is missing!", curr);
+            }
+            boolean ready = true;
+            ObjectId[] commitParents = Commit.getParents(commit);
+            for (ObjectId parent : commitParents) {
+                if (parent != null && !numbers.containsKey(parent)) {
+                    stack.push(parent);
+                    ready = false;
+                }
+            }
+            if (ready) {
+                stack.pop();
+                int first = parentNumber(commitParents[0]);
+                int second = parentNumber(commitParents[1]);
+                int generation = 1 + Math.max(first == NONE ? 0 : generations[first],
+                        second == NONE ? 0 : generations[second]);
+                int n = add(curr, first, second, generation);
+                setBloom(n, first);
+                setBloom(n, second);
+            }
+        }
+        return numbers.get(hashCode);
+    }
+
+    /** Set the Bloom filter of commit N to the bits of itself, and the filter of its PARENT
+     *  if it is in the same epoch.
+     */
+    private void setBloom(int n, int parent) {
+        if (parent != NONE && sameEpoch(n, parent)) {
+            for (int i = 0; i < BLOOM_LONGS; i++) {
+                blooms[n * BLOOM_LONGS + i] |= blooms[parent * BLOOM_LONGS + i];
+            }
+        }
+        for (int i = 0; i < BLOOM_HASHES; i++) {
+            int bit = bloomBit(hashes.get(n), i);
+            blooms[n * BLOOM_LONGS + bit / Long.SIZE] |= 1L << (bit % Long.SIZE);
+        }
+    }
+
+    /** Return whether commit ANCESTOR may be an ancestor of commit N by the Bloom filter of N.
+     *  A false result is always right. It is true if they are not in the same epoch,
+     *  since the filter of N does not have the older epochs.
+     */
+    private boolean mayContain(int n, int ancestor) {
+        if (!sameEpoch(n, ancestor)) {
+            return true;
+        }
+        for (int i = 0; i < BLOOM_HASHES; i++) {
+            int bit = bloomBit(hashes.get(ancestor), i);
+            if ((blooms[n * BLOOM_LONGS + bit / Long.SIZE] & (1L << (bit % Long.SIZE))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Return whether the commits N and M are in the same epoch of generations. */
+    private boolean sameEpoch(int n, int m) {
+        return generations[n] / EPOCH_LENGTH == generations[m] / EPOCH_LENGTH;
+    }
+
+    /** Return the I-th bit of a Hash Code in a Bloom filter.
+     *  The Hash Codes are already uniform, so their bits are used directly.
+     */
+    private static int bloomBit(ObjectId hashCode, int i) {
+        return hashCode.getBits(i) % BLOOM_BITS;
+    }
+
+    /** Return the number of a parent which is already in the graph, or NONE if it is null. */
+    private int parentNumber(ObjectId hashCode) {
+        return hashCode == null ? NONE : numbers.get(hashCode);
+    }
+
+    /** Return the number of the commits in the graph. */
+    int size() {
+        return hashes.size();
+    }
+
+    /** Return the Hash Code of the commit number N. */
+    ObjectId getHash(int n) {
+        return hashes.get(n);
+    }
+
+    /** Return the number of the first parent of the commit number N, or NONE. */
+    int getFirstParent(int n) {
+        return parents[2 * n];
+    }
+
+    /** Return the generation number of a commit. */
+    int getGeneration(ObjectId hashCode) {
+        return generations[numberOf(hashCode)];
+    }
+
+    /** Return whether a commit is an ancestor of another commit, or the same commit.
+     *  It is false at once if the generation number of the ancestor is not smaller,
+     *  or if they are in the same epoch and it is not in the Bloom filter of the other commit.
+     *  Otherwise the history is walked, but only through the commits whose generation number
+     *  is larger than the ancestor's and whose Bloom filter may have it. So an ancestor in an
+     *  older epoch is only pruned by the filters once the walk reaches its epoch.
+     */
+    boolean isAncestor(ObjectId ancestorHashCode, ObjectId hashCode) {
+        int ancestor = numberOf(ancestorHashCode);
+        int curr = numberOf(hashCode);
+        if (ancestor == curr) {
+            return true;
+        }
+        boolean[] visited = new boolean[hashes.size()];
+        Deque<Integer> stack = new ArrayDeque<>();
+        stack.push(curr);
+        while (!stack.isEmpty()) {
+            curr = stack.pop();
+            if (curr == ancestor) {
+                return true;
+            }
+            if (visited[curr] || generations[curr] <= generations[ancestor]
+                    || !mayContain(curr, ancestor)) {
+                continue;
+            }
+            visited[curr] = true;
+            for (int i = 2 * curr; i < 2 * curr + 2; i++) {
+                if (parents[i] != NONE) {
+                    stack.push(parents[i]);
+                }
+            }
+        }
+        return false;
+    }
+
+    /** Return the Hash Code of the best common ancestor of two commits.
+     *  The commits are walked from the highest generation number down, and each commit
+     *  is flagged by which of the two it is reachable from. The first commit reachable
+     *  from both is returned: it has the highest generation number of all the common
+     *  ancestors, so it is not an ancestor of another one, even in a criss-cross history.
+     */
+    ObjectId getMergeBase(ObjectId firstHashCode, ObjectId secondHashCode) {
+        int first = numberOf(firstHashCode);
+        int second = numberOf(secondHashCode);
+        byte[] flags = new byte[hashes.size()];
+        PriorityQueue<Integer> queue = new PriorityQueue<>((a, b) ->
+                generations[a] != generations[b]
+                        ? Integer.compare(generations[b], generations[a])
+                        : Integer.compare(b, a));
+        flags[first] |= FIRST;
+        flags[second] |= SECOND;
+        queue.add(first);
+        queue.add(second);
+
+        while (!queue.isEmpty()) {
+            int curr = queue.poll();
+            byte flag = flags[curr];
+            if (flag == (FIRST | SECOND)) {
+                return hashes.get(curr);
+            }
+            for (int i = 2 * curr; i < 2 * curr + 2; i++) {
+                int parent = parents[i];
+                if (parent != NONE && (flags[parent] & flag) != flag) {
+                    flags[parent] |= flag;
+                    queue.add(parent);
+                }
+            }
+        }
+        return null;
+    }
+
+    /** Append the records of the commits added since the graph file was read.
+     *  The buffer only holds the new records, and the header if the file is new.
+     */
+    void flush() {
+        if (saved == hashes.size()) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(graphFile.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            long size = channel.size();
+            int first = saved;
+            if (size < HEADER_LENGTH) { // a new file, or one cut short: write all the records.
+                first = 0;
+                size = 0;
+            } else { // drop a partly appended record.
+                size = HEADER_LENGTH + (long) RECORD_LENGTH * saved;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((size == 0 ? HEADER_LENGTH : 0)
+                    + RECORD_LENGTH * (hashes.size() - first));
+            if (size == 0) {
+                buffer.put(MAGIC).putInt(VERSION);
+            }
+            for (int n = first; n < hashes.size(); n++) {
+                buffer.put(hashes.get(n).toBytes())
+                        .putInt(parents[2 * n]).putInt(parents[2 * n + 1]).putInt(generations[n]);
+                for (int i = n * BLOOM_LONGS; i < (n + 1) * BLOOM_LONGS; i++) {
+                    buffer.putLong(blooms[i]);
+                }
+            }
+            buffer.flip();
+            channel.truncate(size);
+            channel.write(buffer, size);
+            channel.force(true);
+        } catch (IOException e) {
+            throw error("Cannot write the commit graph: %s", e.getMessage());
+        }
+        saved = hashes.size();
+    }
+}
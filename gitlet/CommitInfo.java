@@ -0,0 +1,32 @@
+package gitlet;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+import static gitlet.Commit.Cmt;
+
+/**
+ * The Fields of a commit, as Gitlet returns them.
+ *
+ * @param id the Hash Code of the commit
+ * @param parents the Hash Codes of the parents, the first parent first
+ * @param timeStamp the time of the commit, in milliseconds since the epoch
+ * @param message the message of the commit
+ */
+public record CommitInfo(ObjectId id, List<ObjectId> parents, long timeStamp, String message) {
+
+    /** Return the Fields of a COMMIT. */
+    static CommitInfo of(Cmt commit) {
+        List<ObjectId> parents = Arrays.stream(Commit.getParents(commit))
+                .filter(Objects::nonNull).toList();
+        return new CommitInfo(Commit.getHash(commit), parents,
+                Commit.getTimeStamp(commit), Commit.getMessage(commit));
+    }
+
+    /** Return the time of the commit as the log prints it. */
+    public String date() {
+        return Commit.DATE_FORMAT.format(Instant.ofEpochMilli(timeStamp));
+    }
+}
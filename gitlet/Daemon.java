@@ -0,0 +1,374 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static gitlet.CommandException.RefusedException;
+import static gitlet.Utils.*;
+
+/**
+ * This class runs the commands of a repository in one long-running process, so a command
+ * does not start a JVM and read the Fields of the Repository again.
+ * The daemon listens on the Unix domain socket SOCKET_FILE and runs one command at a time,
+ * which also keeps the commands of several clients from writing the repository together.
+ * The commands run through Gitlet, which keeps the Repository warm between them.
+ * A client sends the number of the arguments and each argument as a length and UTF-8 bytes,
+ * within READ_TIMEOUT, so a client which sends nothing cannot hold up the others.
+ * The daemon sends back frames of a type and a length: OUT and ERR frames carry the UTF-8
+ * bytes the command prints, and the last frame is EXIT, whose length is the exit code.
+ */
+class Daemon {
+
+    /** The socket of the daemon. */
+    static final File SOCKET_FILE = join(Repository.gitletDir(Repository.CWD), "daemon.sock");
+
+    /** The frame type of the exit code of a command. */
+    private static final byte EXIT = 0;
+
+    /** The frame type of the bytes printed to System.out. */
+    private static final byte OUT = 1;
+
+    /** The frame type of the bytes printed to System.err. */
+    private static final byte ERR = 2;
+
+    /** The exit code of a command which ends by an uncaught exception, as the JVM's. */
+    private static final int FAILURE = 1;
+
+    /** The time in milliseconds for a client to send its arguments. */
+    private static final long READ_TIMEOUT = 5000;
+
+    /** The largest number of bytes of the arguments of a command. */
+    private static final int MAX_ARGS_LENGTH = 1 << 20;
+
+    /** The time in milliseconds for a daemon which is started to open its socket. */
+    private static final long START_TIMEOUT = 10000;
+
+    /** Serve the commands of the clients until a client sends "daemon stop". */
+    static void serve() {
+        Gitlet.open();
+        if (SOCKET_FILE.exists()) {
+            try (SocketChannel ignored = SocketChannel.open(address())) {
+                throw new RefusedException("A daemon is already running.");
+            } catch (IOException e) {
+                SOCKET_FILE.delete(); // left by a daemon which was killed.
+            }
+        }
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(address());
+            Runtime.getRuntime().addShutdownHook(new Thread(SOCKET_FILE::delete));
+            System.out.println("Daemon started.");
+            boolean running = true;
+            while (running) {
+                try (SocketChannel client = server.accept()) {
+                    String[] args = readArgs(client);
+                    if (args == null) {
+                        continue; // the client sent nothing in time, serve the next one.
+                    }
+                    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                            Channels.newOutputStream(client), BUFFER_SIZE));
+                    int exitCode = 0;
+                    if (isDaemon(args, "stop")) {
+                        writeLine(out, "Daemon stopped.");
+                        running = false;
+                    } else if (isDaemon(args) || isDaemon(args, "start")) {
+                        writeLine(out, "A daemon is already running.");
+                    } else {
+                        exitCode = execute(args, out);
+                    }
+                    out.writeByte(EXIT);
+                    out.writeInt(exitCode);
+                    out.flush();
+                } catch (IOException e) {
+                    // the client has gone, serve the next one.
+                }
+            }
+        } catch (IOException e) {
+            throw error("Cannot run the daemon: %s", e.getMessage());
+        } finally {
+            SOCKET_FILE.delete();
+        }
+    }
+
+    /** Run the command of ARGS with its output sent to OUT, and return its exit code. */
+    private static int execute(String[] args, DataOutputStream out) {
+        PrintStream stdout = System.out;
+        PrintStream stderr = System.err;
+        PrintStream clientOut = new PrintStream(new BufferedOutputStream(
+                new FrameOutputStream(out, OUT), BUFFER_SIZE), false, StandardCharsets.UTF_8);
+        PrintStream clientErr = new PrintStream(new FrameOutputStream(out, ERR), true,
+                StandardCharsets.UTF_8);
+        System.setOut(clientOut);
+        System.setErr(clientErr);
+        try {
+            Main.run(args);
+            return 0;
+        } catch (RuntimeException e) {
+            clientOut.flush();
+            clientErr.print("Exception in thread \"main\" ");
+            e.printStackTrace(clientErr);
+            return FAILURE;
+        } finally {
+            clientOut.flush();
+            System.setOut(stdout);
+            System.setErr(stderr);
+        }
+    }
+
+    /**
+     * Send ARGS to the daemon of the repository and print its output.
+     * Return the exit code of the command, or null if no daemon is running.
+     */
+    static Integer forward(String[] args) {
+        if (!SOCKET_FILE.exists()) {
+            return null;
+        }
+        try (SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX)) {
+            try {
+                channel.connect(address());
+            } catch (IOException e) {
+                return null; // the socket was left by a daemon which was killed.
+            }
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    Channels.newOutputStream(channel), BUFFER_SIZE));
+            out.writeInt(args.length);
+            for (String arg : args) {
+                byte[] bytes = arg.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+            out.flush();
+
+            DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    Channels.newInputStream(channel), BUFFER_SIZE));
+            FrameDecoder stdout = new FrameDecoder(System.out);
+            FrameDecoder stderr = new FrameDecoder(System.err);
+            while (true) {
+                byte type = in.readByte();
+                int length = in.readInt();
+                if (type == EXIT) {
+                    System.out.flush();
+                    return length;
+                }
+                (type == OUT ? stdout : stderr).print(in.readNBytes(length));
+            }
+        } catch (IOException e) {
+            throw error("The daemon has stopped: %s", e.getMessage());
+        }
+    }
+
+    /** Return the address of SOCKET_FILE. */
+    private static UnixDomainSocketAddress address() {
+        return UnixDomainSocketAddress.of(SOCKET_FILE.toPath());
+    }
+
+    /**
+     * Start a daemon of the repository in the background, and return once its socket is open.
+     * The daemon is a new JVM of the same class path and gitlet.* system properties,
+     * so a client does not have to keep it in the foreground.
+     */
+    static void start() {
+        Gitlet.open();
+        if (forward(new String[]{"daemon", "start"}) != null) {
+            return;
+        }
+        List<String> command = new ArrayList<>();
+        command.add(join(System.getProperty("java.home"), "bin", "java").getPath());
+        System.getProperties().stringPropertyNames().stream()
+                .filter(name -> name.startsWith("gitlet."))
+                .forEach(name -> command.add("-D" + name + "=" + System.getProperty(name)));
+        command.addAll(List.of("-cp", System.getProperty("java.class.path"),
+                Main.class.getName(), "daemon"));
+        Process process;
+        try {
+            process = new ProcessBuilder(command).directory(Repository.CWD)
+                    .redirectInput(ProcessBuilder.Redirect.from(new File("/dev/null")))
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                    .redirectError(ProcessBuilder.Redirect.DISCARD).start();
+        } catch (IOException e) {
+            throw error("Cannot start the daemon: %s", e.getMessage());
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(START_TIMEOUT);
+        while (!isRunning()) {
+            if (!process.isAlive() || System.nanoTime() > deadline) {
+                process.destroy();
+                throw error("Cannot start the daemon.");
+            }
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw error("Interrupted when starting the daemon.");
+            }
+        }
+        System.out.println("Daemon started.");
+    }
+
+    /** Return whether a daemon accepts the connections on SOCKET_FILE. */
+    private static boolean isRunning() {
+        if (!SOCKET_FILE.exists()) {
+            return false;
+        }
+        try (SocketChannel ignored = SocketChannel.open(address())) {
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Read the arguments sent by a CLIENT within READ_TIMEOUT,
+     * or return null if they are not sent in time or are too long.
+     * The client is read without blocking, then it is blocking again to write the output.
+     */
+    private static String[] readArgs(SocketChannel client) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        String[] args = null;
+        client.configureBlocking(false);
+        try (Selector selector = Selector.open()) {
+            client.register(selector, SelectionKey.OP_READ);
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(READ_TIMEOUT);
+            while (args == null) {
+                long left = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (left <= 0) {
+                    return null;
+                }
+                if (selector.select(left) == 0) {
+                    continue;
+                }
+                selector.selectedKeys().clear();
+                if (!buffer.hasRemaining()) {
+                    if (buffer.capacity() >= MAX_ARGS_LENGTH) {
+                        return null;
+                    }
+                    buffer = ByteBuffer.allocate(2 * buffer.capacity()).put(buffer.flip());
+                }
+                if (client.read(buffer) < 0) {
+                    return null;
+                }
+                args = parseArgs(buffer.duplicate().flip());
+            }
+        }
+        client.configureBlocking(true);
+        return args;
+    }
+
+    /** Return the arguments in BYTES, or null if they are not complete yet. */
+    private static String[] parseArgs(ByteBuffer bytes) {
+        try {
+            String[] args = new String[bytes.getInt()];
+            for (int i = 0; i < args.length; i++) {
+                byte[] arg = new byte[bytes.getInt()];
+                bytes.get(arg);
+                args[i] = new String(arg, StandardCharsets.UTF_8);
+            }
+            return args;
+        } catch (BufferUnderflowException | NegativeArraySizeException e) {
+            return null;
+        }
+    }
+
+    /** Return whether ARGS is the daemon command with the OPERANDS. */
+    private static boolean isDaemon(String[] args, String... operands) {
+        return args.length == operands.length + 1 && args[0].equals("daemon")
+                && Arrays.equals(args, 1, args.length, operands, 0, operands.length);
+    }
+
+    /** Send a LINE to be printed to System.out of the client. */
+    private static void writeLine(DataOutputStream out, String line) throws IOException {
+        byte[] bytes = (line + System.lineSeparator()).getBytes(StandardCharsets.UTF_8);
+        out.writeByte(OUT);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /** A decoder of the UTF-8 bytes of the frames of a type, which prints them to a stream.
+     *  A character may be split between 2 frames, so its first bytes are kept.
+     */
+    private static class FrameDecoder {
+
+        /** The stream to print to. */
+        private final PrintStream stream;
+
+        /** The decoder of the bytes. */
+        private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+        /** The bytes of a character which is not complete yet. */
+        private ByteBuffer pending = ByteBuffer.allocate(0);
+
+        /** The constructor of a decoder which prints to STREAM. */
+        FrameDecoder(PrintStream stream) {
+            this.stream = stream;
+        }
+
+        /** Print the characters of the BYTES of a frame. */
+        void print(byte[] bytes) {
+            ByteBuffer in = ByteBuffer.allocate(pending.remaining() + bytes.length)
+                    .put(pending).put(bytes).flip();
+            CharBuffer out = CharBuffer.allocate(in.remaining());
+            decoder.decode(in, out, false);
+            stream.append(out.flip());
+            pending = in;
+        }
+    }
+
+    /** An OutputStream which sends the bytes to a client in frames of a type. */
+    private static class FrameOutputStream extends OutputStream {
+
+        /** The stream to the client. */
+        private final DataOutputStream out;
+
+        /** The type of the frames. */
+        private final byte type;
+
+        /** The constructor of a stream of frames of a TYPE to OUT. */
+        FrameOutputStream(DataOutputStream out, byte type) {
+            this.out = out;
+            this.type = type;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return;
+            }
+            out.writeByte(type);
+            out.writeInt(len);
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+    }
+}
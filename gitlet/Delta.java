@@ -0,0 +1,139 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * This class encodes a version of a file as a delta against another version.
+ * A delta starts with the lengths of the base and the target,
+ * followed by instructions to build the target:
+ * COPY copies a range of the base; INSERT inserts the bytes saved in the delta.
+ * Every number is saved as a varint: 7 bits per byte, the highest bit means more bytes.
+ */
+class Delta {
+
+    /** The instruction which copies a range of the base: offset, length. */
+    private static final int COPY = 1;
+
+    /** The instruction which inserts bytes: length, bytes. */
+    private static final int INSERT = 0;
+
+    /** The size of the blocks of the base which are indexed to find the matches. */
+    private static final int BLOCK = 16;
+
+    /** Return the delta which builds TARGET from BASE. */
+    static byte[] create(byte[] base, byte[] target) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeVarint(out, base.length);
+        writeVarint(out, target.length);
+
+        // Index the offset of the first occurrence of every block of the base.
+        HashMap<Integer, Integer> blocks = new HashMap<>();
+        for (int i = 0; i + BLOCK <= base.length; i += BLOCK) {
+            blocks.putIfAbsent(hash(base, i), i);
+        }
+
+        int insertStart = 0;
+        int i = 0;
+        while (i + BLOCK <= target.length) {
+            Integer j = blocks.get(hash(target, i));
+            if (j == null || !Arrays.equals(base, j, j + BLOCK, target, i, i + BLOCK)) {
+                i++;
+                continue;
+            }
+            // Extend the match backwards and forwards as far as possible.
+            int start = i;
+            int baseStart = j;
+            while (start > insertStart && baseStart > 0
+                    && target[start - 1] == base[baseStart - 1]) {
+                start--;
+                baseStart--;
+            }
+            int end = i + BLOCK;
+            int baseEnd = j + BLOCK;
+            while (end < target.length && baseEnd < base.length
+                    && target[end] == base[baseEnd]) {
+                end++;
+                baseEnd++;
+            }
+            writeInsert(out, target, insertStart, start);
+            out.write(COPY);
+            writeVarint(out, baseStart);
+            writeVarint(out, end - start);
+            i = end;
+            insertStart = end;
+        }
+        writeInsert(out, target, insertStart, target.length);
+        return out.toByteArray();
+    }
+
+    /** Return the target built by applying DELTA to BASE. */
+    static byte[] apply(byte[] base, byte[] delta) {
+        int[] pos = {0};
+        if (readVarint(delta, pos) != base.length) {
+            throw Utils.error("The delta does NOT match its base!");
+        }
+        byte[] target = new byte[(int) readVarint(delta, pos)];
+        int size = 0;
+        while (pos[0] < delta.length) {
+            int op = delta[pos[0]++];
+            if (op == COPY) {
+                int offset = (int) readVarint(delta, pos);
+                int length = (int) readVarint(delta, pos);
+                System.arraycopy(base, offset, target, size, length);
+                size += length;
+            } else {
+                int length = (int) readVarint(delta, pos);
+                System.arraycopy(delta, pos[0], target, size, length);
+                pos[0] += length;
+                size += length;
+            }
+        }
+        if (size != target.length) {
+            throw Utils.error("The delta is broken!");
+        }
+        return target;
+    }
+
+    /** Write an INSERT instruction of BYTES[START, END) if it is not empty. */
+    private static void writeInsert(ByteArrayOutputStream out, byte[] bytes, int start, int end) {
+        if (start >= end) {
+            return;
+        }
+        out.write(INSERT);
+        writeVarint(out, end - start);
+        out.write(bytes, start, end - start);
+    }
+
+    /** Write a non-negative VALUE as a varint. */
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while (value >= 0x80) {
+            out.write((int) (value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    /** Read a varint from BYTES at POS[0], and move POS[0] after it. */
+    private static long readVarint(byte[] bytes, int[] pos) {
+        long value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = bytes[pos[0]++] & 0xff;
+            value |= (long) (b & 0x7f) << shift;
+            shift += 7;
+        } while (b >= 0x80);
+        return value;
+    }
+
+    /** Return the hash of the block of BYTES starting at START. */
+    private static int hash(byte[] bytes, int start) {
+        int h = 0;
+        for (int i = start; i < start + BLOCK; i++) {
+            h = h * 31 + bytes[i];
+        }
+        return h;
+    }
+}
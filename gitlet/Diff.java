@@ -0,0 +1,369 @@
+package gitlet;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.ToIntFunction;
+
+/**
+ * This class finds the shortest edit script between two sequences of lines by the
+ * linear-space version of Myers' O(ND) algorithm.
+ * The lines are numbered first, the same line always has the same number, so the
+ * algorithm only compares ints. A line which is only in one of the sequences can never
+ * match, so it is marked changed at once and left out of the search, as GNU diff does;
+ * sequences with little in common do not cost the worst case of the search.
+ * The common prefix and suffix are skipped, then the
+ * middle snake of the shortest path is found by searching from both ends at once,
+ * and the two halves are compared recursively. Only two arrays of the diagonals are
+ * kept per level, so the memory is linear in the length of the sequences.
+ * The result is a list of Hunks: the lines of the first sequence replaced by the
+ * lines of the second one, in order.
+ * Two files are diffed from Sources which are streamed, so only the distinct lines of
+ * the first file and the numbers of the lines are kept while they are compared.
+ */
+class Diff {
+
+    /**
+     * A run of lines of the first sequence replaced by a run of lines of the second one.
+     * A Hunk which inserts has an empty run of the first sequence, and one which deletes
+     * has an empty run of the second one.
+     *
+     * @param start the first changed line of the first sequence
+     * @param end the end of the changed lines of the first sequence, exclusive
+     * @param otherStart the first changed line of the second sequence
+     * @param otherEnd the end of the changed lines of the second sequence, exclusive
+     */
+    record Hunk(int start, int end, int otherStart, int otherEnd) {
+    }
+
+    /** A file which can be read more than once. */
+    interface Source {
+
+        /** Return a new stream of the contents of the file. */
+        InputStream open() throws IOException;
+    }
+
+    /** The Source of a file which does not exist, it has no lines. */
+    static final Source EMPTY = InputStream::nullInputStream;
+
+    /** The numbers of the lines of the first sequence which are also in the second one. */
+    private final int[] a;
+
+    /** The numbers of the lines of the second sequence which are also in the first one. */
+    private final int[] b;
+
+    /** The indices of the lines of A in the first sequence. */
+    private final int[] aIndices;
+
+    /** The indices of the lines of B in the second sequence. */
+    private final int[] bIndices;
+
+    /** Whether each line of the first sequence is deleted. */
+    private final boolean[] deleted;
+
+    /** Whether each line of the second sequence is inserted. */
+    private final boolean[] inserted;
+
+    /** The constructor of the Diff of the numbered lines FIRST and SECOND.
+     *  The lines which are only in one of them are marked changed.
+     */
+    private Diff(int[] first, int[] second) {
+        int count = 0;
+        for (int number : first) {
+            count = Math.max(count, number + 1);
+        }
+        for (int number : second) {
+            count = Math.max(count, number + 1);
+        }
+        boolean[] inFirst = new boolean[count];
+        boolean[] inSecond = new boolean[count];
+        for (int number : first) {
+            inFirst[number] = true;
+        }
+        for (int number : second) {
+            inSecond[number] = true;
+        }
+        deleted = new boolean[first.length];
+        inserted = new boolean[second.length];
+        aIndices = common(first, inSecond, deleted);
+        bIndices = common(second, inFirst, inserted);
+        a = new int[aIndices.length];
+        for (int i = 0; i < a.length; i++) {
+            a[i] = first[aIndices[i]];
+        }
+        b = new int[bIndices.length];
+        for (int j = 0; j < b.length; j++) {
+            b[j] = second[bIndices[j]];
+        }
+    }
+
+    /** Return the indices of the LINES which are IN the other sequence,
+     *  and mark the other ones CHANGED.
+     */
+    private static int[] common(int[] lines, boolean[] in, boolean[] changed) {
+        int[] indices = new int[lines.length];
+        int size = 0;
+        for (int i = 0; i < lines.length; i++) {
+            if (in[lines[i]]) {
+                indices[size++] = i;
+            } else {
+                changed[i] = true;
+            }
+        }
+        return Arrays.copyOf(indices, size);
+    }
+
+    /** Return the Hunks which change the numbered lines A into B, in order. */
+    static List<Hunk> diff(int[] a, int[] b) {
+        Diff diff = new Diff(a, b);
+        diff.compare(0, diff.a.length, 0, diff.b.length);
+        return diff.hunks();
+    }
+
+    /** Return the lines of TEXT, each with its line terminator, the last one may have none. */
+    static List<String> lines(String text) {
+        List<String> lines = new ArrayList<>();
+        int start = 0;
+        while (start < text.length()) {
+            int end = text.indexOf('\n', start);
+            end = end < 0 ? text.length() : end + 1;
+            lines.add(text.substring(start, end));
+            start = end;
+        }
+        return lines;
+    }
+
+    /** Return the numbers of the LINES, the same line has the same number in all the
+     *  sequences numbered with the same NUMBERS.
+     */
+    static int[] number(List<String> lines, Map<String, Integer> numbers) {
+        int[] result = new int[lines.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = numbers.computeIfAbsent(lines.get(i), k -> numbers.size());
+        }
+        return result;
+    }
+
+    /** Return the Hunks which change the lines A into B, in order. */
+    static List<Hunk> diff(List<String> a, List<String> b) {
+        Map<String, Integer> numbers = new HashMap<>();
+        return diff(number(a, numbers), number(b, numbers));
+    }
+
+    /**
+     * Return the Hunks which change the lines of the file A into the file B, in order,
+     * with the changed lines.
+     * The lines of A are numbered first, so only its distinct lines are kept; a line of B
+     * which is not in A can never match, so all of them share one number. Then only the
+     * changed lines are read again from both files.
+     */
+    static List<FileDiff.Hunk> diff(Source a, Source b) throws IOException {
+        Map<String, Integer> numbers = new HashMap<>();
+        int[] first = number(a, line -> numbers.computeIfAbsent(line, k -> numbers.size()));
+        int unknown = numbers.size();
+        int[] second = number(b, line -> numbers.getOrDefault(line, unknown));
+        numbers.clear();
+
+        List<Hunk> hunks = diff(first, second);
+        List<List<String>> removed = changedLines(a, hunks, true);
+        List<List<String>> added = changedLines(b, hunks, false);
+        List<FileDiff.Hunk> result = new ArrayList<>(hunks.size());
+        for (int i = 0; i < hunks.size(); i++) {
+            result.add(new FileDiff.Hunk(hunks.get(i).start(), removed.get(i),
+                    hunks.get(i).otherStart(), added.get(i)));
+        }
+        return result;
+    }
+
+    /** Return the numbers of the lines of a SOURCE, each line is numbered by NUMBERER. */
+    private static int[] number(Source source, ToIntFunction<String> numberer)
+            throws IOException {
+        int[] result = new int[64];
+        int size = 0;
+        try (BufferedReader reader = open(source)) {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                if (size == result.length) {
+                    result = Arrays.copyOf(result, size * 2);
+                }
+                result[size++] = numberer.applyAsInt(line);
+            }
+        }
+        return Arrays.copyOf(result, size);
+    }
+
+    /** Return the lines of a SOURCE changed by each of the HUNKS,
+     *  of the first sequence if FIRST, or of the second one.
+     */
+    private static List<List<String>> changedLines(Source source, List<Hunk> hunks,
+                                                   boolean first) throws IOException {
+        List<List<String>> result = new ArrayList<>(hunks.size());
+        try (BufferedReader reader = open(source)) {
+            int line = 0;
+            for (Hunk hunk : hunks) {
+                int start = first ? hunk.start() : hunk.otherStart();
+                int end = first ? hunk.end() : hunk.otherEnd();
+                List<String> lines = new ArrayList<>(end - start);
+                for (; line < end; line++) {
+                    String text = reader.readLine();
+                    if (text == null) {
+                        throw new IOException("The file was changed while it was read.");
+                    }
+                    if (line >= start) {
+                        lines.add(text);
+                    }
+                }
+                result.add(lines);
+            }
+        }
+        return result;
+    }
+
+    /** Return a reader of the lines of a SOURCE, which are UTF-8. */
+    private static BufferedReader open(Source source) throws IOException {
+        return new BufferedReader(new InputStreamReader(source.open(), StandardCharsets.UTF_8),
+                Utils.BUFFER_SIZE);
+    }
+
+    /** Mark the changed lines of A[ALO, AHI) and B[BLO, BHI). */
+    private void compare(int aLo, int aHi, int bLo, int bHi) {
+        while (aLo < aHi && bLo < bHi && a[aLo] == b[bLo]) {
+            aLo++;
+            bLo++;
+        }
+        while (aLo < aHi && bLo < bHi && a[aHi - 1] == b[bHi - 1]) {
+            aHi--;
+            bHi--;
+        }
+        if (aLo == aHi || bLo == bHi) {
+            mark(aLo, aHi, bLo, bHi);
+            return;
+        }
+        long split = middleSnake(aLo, aHi, bLo, bHi);
+        if (split < 0) { // nothing in common.
+            mark(aLo, aHi, bLo, bHi);
+            return;
+        }
+        int x = (int) (split >>> 32);
+        int y = (int) split;
+        compare(aLo, x, bLo, y);
+        compare(x, aHi, y, bHi);
+    }
+
+    /** Mark all the lines of A[ALO, AHI) deleted and B[BLO, BHI) inserted. */
+    private void mark(int aLo, int aHi, int bLo, int bHi) {
+        for (int i = aLo; i < aHi; i++) {
+            deleted[aIndices[i]] = true;
+        }
+        for (int j = bLo; j < bHi; j++) {
+            inserted[bIndices[j]] = true;
+        }
+    }
+
+    /**
+     * Return the point where a shortest path from (ALO, BLO) to (AHI, BHI) is split,
+     * as x << 32 | y, or -1 if the sequences have nothing in common.
+     * The furthest reaching paths are extended from both corners, one more edit at a time,
+     * until a forward path and a backward path overlap on a diagonal: the end of that
+     * forward snake is on a shortest path, and splits its edits in halves.
+     */
+    private long middleSnake(int aLo, int aHi, int bLo, int bHi) {
+        int n = aHi - aLo;
+        int m = bHi - bLo;
+        int maxD = (n + m + 1) / 2;
+        int offset = maxD;
+        int length = 2 * maxD + 2;
+        int[] forward = new int[length];
+        int[] backward = new int[length];
+        Arrays.fill(forward, -1);
+        Arrays.fill(backward, -1);
+        forward[offset + 1] = 0;
+        backward[offset + 1] = 0;
+        int delta = n - m;
+        boolean odd = (delta & 1) != 0;
+        int kStart = 0;
+        int kEnd = 0;
+        int kbStart = 0;
+        int kbEnd = 0;
+
+        for (int d = 0; d < maxD; d++) {
+            for (int k = -d + kStart; k <= d - kEnd; k += 2) { // forward paths.
+                int i = offset + k;
+                int x = (k == -d || (k != d && forward[i - 1] < forward[i + 1]))
+                        ? forward[i + 1] : forward[i - 1] + 1;
+                int y = x - k;
+                while (x < n && y < m && a[aLo + x] == b[bLo + y]) {
+                    x++;
+                    y++;
+                }
+                forward[i] = x;
+                if (x > n) {
+                    kEnd += 2;
+                } else if (y > m) {
+                    kStart += 2;
+                } else if (odd) {
+                    int j = offset + delta - k;
+                    if (j >= 0 && j < length && backward[j] != -1 && x >= n - backward[j]) {
+                        return (long) (aLo + x) << 32 | (bLo + y);
+                    }
+                }
+            }
+            for (int k = -d + kbStart; k <= d - kbEnd; k += 2) { // backward paths.
+                int i = offset + k;
+                int x = (k == -d || (k != d && backward[i - 1] < backward[i + 1]))
+                        ? backward[i + 1] : backward[i - 1] + 1;
+                int y = x - k;
+                while (x < n && y < m && a[aHi - x - 1] == b[bHi - y - 1]) {
+                    x++;
+                    y++;
+                }
+                backward[i] = x;
+                if (x > n) {
+                    kbEnd += 2;
+                } else if (y > m) {
+                    kbStart += 2;
+                } else if (!odd) {
+                    int j = offset + delta - k;
+                    if (j >= 0 && j < length && forward[j] != -1) {
+                        int forwardX = forward[j];
+                        int forwardY = offset + forwardX - j;
+                        if (forwardX >= n - x) {
+                            return (long) (aLo + forwardX) << 32 | (bLo + forwardY);
+                        }
+                    }
+                }
+            }
+        }
+        return -1;
+    }
+
+    /** Return the Hunks of the marked lines, in order. */
+    private List<Hunk> hunks() {
+        List<Hunk> hunks = new ArrayList<>();
+        int i = 0;
+        int j = 0;
+        while (i < deleted.length || j < inserted.length) {
+            if (i < deleted.length && j < inserted.length && !deleted[i] && !inserted[j]) {
+                i++;
+                j++;
+                continue;
+            }
+            int start = i;
+            int otherStart = j;
+            while (i < deleted.length && deleted[i]) {
+                i++;
+            }
+            while (j < inserted.length && inserted[j]) {
+                j++;
+            }
+            hunks.add(new Hunk(start, i, otherStart, j));
+        }
+        return hunks;
+    }
+}
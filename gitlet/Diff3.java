@@ -0,0 +1,163 @@
+package gitlet;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class merges two versions of a file which were both changed from a base version,
+ * line by line, as diff3 does.
+ * The Hunks of the base to each version are found by Diff, and walked in the order of the
+ * base. The Hunks which overlap or touch in the base form a group:
+ * 1. A group of one version takes the lines of that version.
+ * 2. A group of both versions whose lines are the same takes them once.
+ * 3. Otherwise it is a conflict. The lines which both versions have at the beginning
+ *    and the end of the group are taken outside of the conflict, so the conflict only
+ *    holds the lines which differ.
+ * The base lines which neither version changed are kept. A marker always starts a line,
+ * so a line without a line terminator is ended before it.
+ */
+class Diff3 {
+
+    /** The line before the lines of the current version in a conflict. */
+    static final String HEAD_MARKER = "<<<<<<< HEAD\n";
+
+    /** The line between the lines of the two versions in a conflict. */
+    static final String SEPARATOR_MARKER = "=======\n";
+
+    /** The line after the lines of the given version in a conflict. */
+    static final String END_MARKER = ">>>>>>>\n";
+
+    /**
+     * The result of a merge.
+     *
+     * @param text the merged contents, with the conflict markers
+     * @param conflicted whether there is a conflict
+     */
+    record Result(String text, boolean conflicted) {
+    }
+
+    /** The lines of the base. */
+    private final List<String> base;
+
+    /** The lines of the current version. */
+    private final List<String> ours;
+
+    /** The lines of the given version. */
+    private final List<String> theirs;
+
+    /** The merged contents so far. */
+    private final StringBuilder out = new StringBuilder();
+
+    /** Whether there is a conflict so far. */
+    private boolean conflicted;
+
+    /** The constructor of the merge of the lines of OURS and THEIRS from BASE. */
+    private Diff3(List<String> base, List<String> ours, List<String> theirs) {
+        this.base = base;
+        this.ours = ours;
+        this.theirs = theirs;
+    }
+
+    /** Return the merge of the contents OURS and THEIRS, which were changed from BASE. */
+    static Result merge(String base, String ours, String theirs) {
+        Diff3 merge = new Diff3(Diff.lines(base), Diff.lines(ours), Diff.lines(theirs));
+        merge.run();
+        return new Result(merge.out.toString(), merge.conflicted);
+    }
+
+    /** Walk the groups of Hunks of both versions in the order of the base. */
+    private void run() {
+        Map<String, Integer> numbers = new HashMap<>();
+        int[] baseNumbers = Diff.number(base, numbers);
+        List<Diff.Hunk> ourHunks = Diff.diff(baseNumbers, Diff.number(ours, numbers));
+        List<Diff.Hunk> theirHunks = Diff.diff(baseNumbers, Diff.number(theirs, numbers));
+
+        int i = 0; // the next Hunk of ours.
+        int j = 0; // the next Hunk of theirs.
+        int ourShift = 0; // the lines ours has more than the base, before the next Hunk.
+        int theirShift = 0;
+        int basePos = 0; // the base lines before it are taken.
+        while (i < ourHunks.size() || j < theirHunks.size()) {
+            boolean oursFirst = j == theirHunks.size() || (i < ourHunks.size()
+                    && ourHunks.get(i).start() <= theirHunks.get(j).start());
+            int start = oursFirst ? ourHunks.get(i).start() : theirHunks.get(j).start();
+            int end = start;
+            int ourStart = start + ourShift;
+            int theirStart = start + theirShift;
+            boolean hasOurs = false;
+            boolean hasTheirs = false;
+            while (true) { // take every Hunk which overlaps or touches the group.
+                if (i < ourHunks.size() && ourHunks.get(i).start() <= end) {
+                    Diff.Hunk hunk = ourHunks.get(i++);
+                    end = Math.max(end, hunk.end());
+                    ourShift += (hunk.otherEnd() - hunk.otherStart())
+                            - (hunk.end() - hunk.start());
+                    hasOurs = true;
+                } else if (j < theirHunks.size() && theirHunks.get(j).start() <= end) {
+                    Diff.Hunk hunk = theirHunks.get(j++);
+                    end = Math.max(end, hunk.end());
+                    theirShift += (hunk.otherEnd() - hunk.otherStart())
+                            - (hunk.end() - hunk.start());
+                    hasTheirs = true;
+                } else {
+                    break;
+                }
+            }
+
+            append(base, basePos, start);
+            basePos = end;
+            List<String> ourLines = ours.subList(ourStart, end + ourShift);
+            List<String> theirLines = theirs.subList(theirStart, end + theirShift);
+            if (!hasTheirs) {
+                append(ourLines, 0, ourLines.size());
+            } else if (!hasOurs || ourLines.equals(theirLines)) {
+                append(theirLines, 0, theirLines.size());
+            } else {
+                conflict(ourLines, theirLines);
+            }
+        }
+        append(base, basePos, base.size());
+    }
+
+    /** Append the conflict of OURLINES and THEIRLINES, without their common lines
+     *  at the beginning and the end.
+     */
+    private void conflict(List<String> ourLines, List<String> theirLines) {
+        int prefix = 0;
+        while (prefix < ourLines.size() && prefix < theirLines.size()
+                && ourLines.get(prefix).equals(theirLines.get(prefix))) {
+            prefix++;
+        }
+        int suffix = 0;
+        while (suffix < ourLines.size() - prefix && suffix < theirLines.size() - prefix
+                && ourLines.get(ourLines.size() - 1 - suffix)
+                .equals(theirLines.get(theirLines.size() - 1 - suffix))) {
+            suffix++;
+        }
+        append(ourLines, 0, prefix);
+        out.append(HEAD_MARKER);
+        append(ourLines, prefix, ourLines.size() - suffix);
+        endLine();
+        out.append(SEPARATOR_MARKER);
+        append(theirLines, prefix, theirLines.size() - suffix);
+        endLine();
+        out.append(END_MARKER);
+        append(ourLines, ourLines.size() - suffix, ourLines.size());
+        conflicted = true;
+    }
+
+    /** End the last line if it has no line terminator, so a marker starts a line. */
+    private void endLine() {
+        if (out.length() > 0 && out.charAt(out.length() - 1) != '\n') {
+            out.append('\n');
+        }
+    }
+
+    /** Append LINES[FROM, TO). */
+    private void append(List<String> lines, int from, int to) {
+        for (int k = from; k < to; k++) {
+            out.append(lines.get(k));
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package gitlet;
+
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.function.Consumer;
+
+/**
+ * This class prints the changes of the files one by one as they are diffed,
+ * through a buffered writer, in the unified format without context lines.
+ * An added file is diffed from /dev/null, and a deleted file to /dev/null.
+ */
+class DiffPrinter implements Consumer<FileDiff> {
+
+    /** The name of the version of a file which does not exist. */
+    private static final String NO_FILE = "/dev/null";
+
+    /** The writer of the standard output. */
+    private final PrintWriter out = new PrintWriter(new BufferedWriter(
+            new OutputStreamWriter(System.out), Utils.BUFFER_SIZE));
+
+    /** Print the header and the hunks of a file. */
+    @Override
+    public void accept(FileDiff diff) {
+        String oldName = diff.oldId() == null ? NO_FILE : "a/" + diff.path();
+        String newName = diff.newId() == null ? NO_FILE : "b/" + diff.path();
+        out.println("diff --git " + oldName + " " + newName);
+        out.println("--- " + oldName);
+        out.println("+++ " + newName);
+        for (FileDiff.Hunk hunk : diff.hunks()) {
+            out.println("@@ -" + range(hunk.oldStart(), hunk.removed().size())
+                    + " +" + range(hunk.newStart(), hunk.added().size()) + " @@");
+            for (String line : hunk.removed()) {
+                out.println("-" + line);
+            }
+            for (String line : hunk.added()) {
+                out.println("+" + line);
+            }
+        }
+    }
+
+    /** Return the range of COUNT lines after START lines: the number of the first line,
+     *  or of the line before if there is none, and the count if it is not 1.
+     */
+    private static String range(int start, int count) {
+        if (count == 1) {
+            return String.valueOf(start + 1);
+        }
+        return (count == 0 ? start : start + 1) + "," + count;
+    }
+
+    /** Write the buffered changes to the standard output. */
+    void flush() {
+        out.flush();
+    }
+}
@@ -0,0 +1,26 @@
+package gitlet;
+
+import java.util.List;
+
+/**
+ * The changes of one file between two versions, as Gitlet returns them.
+ *
+ * @param path the path of the file
+ * @param oldId the Hash Code of the old version, or null if the file is added
+ * @param newId the Hash Code of the new version, or null if the file is deleted
+ * @param hunks the changed lines, in order
+ */
+public record FileDiff(String path, ObjectId oldId, ObjectId newId, List<Hunk> hunks) {
+
+    /**
+     * A run of lines of the old version replaced by a run of lines of the new one.
+     * The lines have no line terminators.
+     *
+     * @param oldStart the number of the lines of the old version before the hunk
+     * @param removed the lines of the old version which are removed
+     * @param newStart the number of the lines of the new version before the hunk
+     * @param added the lines of the new version which are added
+     */
+    public record Hunk(int oldStart, List<String> removed, int newStart, List<String> added) {
+    }
+}
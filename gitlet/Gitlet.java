@@ -0,0 +1,352 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * The programmatic interface of Gitlet, for a program which runs it in its own process.
+ * Every method runs one command on the repository of a work dir, as the
+ * command line does in the working directory, and returns its result instead of printing it.
+ * A command which is refused throws a CommandException, whose message is the one the
+ * command line prints; any other GitletException is a failure of Gitlet.
+ * The commands run one at a time, and each one is flushed to disk before it returns.
+ * The Repository is kept warm between the commands, and is read again when the files of
+ * .gitlet have been changed by another process, or when a command fails, since its changes
+ * in memory were not flushed.
+ * A process has one Gitlet for each work dir, which owns the Repository, the paths of its
+ * files and the caches of its objects, so a program may work on many repositories at once.
+ * The paths of the files given to the commands are relative to the work dir.
+ */
+public final class Gitlet {
+
+    /** The value of a limit to pass all the commits of a log. */
+    public static final int NO_LIMIT = -1;
+
+    /** The Gitlets of the work dirs which have been opened.
+     *  Key: the canonical work dir; Value: its Gitlet.
+     */
+    private static final Map<File, Gitlet> INSTANCES = new HashMap<>();
+
+    /** The lock of the commands. */
+    private final Object lock = new Object();
+
+    /** The work dir of the repository. */
+    private final File workDir;
+
+    /** The .gitlet directory of the repository. */
+    private final File gitletDir;
+
+    /** The Repository of the previous commands, or null if it has to be read. */
+    private Repository repository;
+
+    /** The stat data of the files of .gitlet after the previous command. */
+    private String state;
+
+    /** Use init() or open(). */
+    private Gitlet(File workDir) {
+        this.workDir = workDir;
+        this.gitletDir = Repository.gitletDir(workDir);
+    }
+
+    /** Create a new repository in the working directory, and return it. */
+    public static Gitlet init() {
+        return init(Repository.CWD);
+    }
+
+    /** Create a new repository in WORKDIR, and return it. */
+    public static Gitlet init(File workDir) {
+        Gitlet gitlet = of(workDir);
+        synchronized (gitlet.lock) {
+            gitlet.discard();
+            gitlet.repository = Repository.init(gitlet.workDir);
+            gitlet.run(repo -> null);
+        }
+        return gitlet;
+    }
+
+    /** Return the repository of the working directory. */
+    public static Gitlet open() {
+        return open(Repository.CWD);
+    }
+
+    /** Return the repository of WORKDIR, which is the same Gitlet every time it is opened. */
+    public static Gitlet open(File workDir) {
+        Gitlet gitlet = of(workDir);
+        gitlet.execute(repo -> null);
+        return gitlet;
+    }
+
+    /** Return the Gitlet of WORKDIR, create it the first time the directory is opened. */
+    private static Gitlet of(File workDir) {
+        File dir = workDir.getAbsoluteFile();
+        File key;
+        try {
+            key = dir.getCanonicalFile();
+        } catch (IOException e) {
+            key = dir;
+        }
+        synchronized (INSTANCES) {
+            return INSTANCES.computeIfAbsent(key, k -> new Gitlet(dir));
+        }
+    }
+
+    /** Stage the files at the PATHS, a directory stages all the files under it. */
+    public void add(String... paths) {
+        execute(repo -> {
+            repo.add(paths);
+            return null;
+        });
+    }
+
+    /** Commit the stage with a MESSAGE, and return the Hash Code of the new commit. */
+    public ObjectId commit(String message) {
+        return execute(repo -> repo.commit(message));
+    }
+
+    /** Un-stage a file, and remove it if it is tracked by the current commit. */
+    public void rm(String fileName) {
+        execute(repo -> {
+            repo.rm(fileName);
+            return null;
+        });
+    }
+
+    /** Pass the current commit and its first parents to ACTION, newest first,
+     *  skipping the first SKIP commits and passing at most LIMIT commits, or NO_LIMIT.
+     */
+    public void log(int skip, int limit, Consumer<CommitInfo> action) {
+        execute(repo -> {
+            repo.log(skip, limit, action);
+            return null;
+        });
+    }
+
+    /** Pass the current commit and its first parents which changed a PATH to ACTION,
+     *  as log(SKIP, LIMIT, ACTION) does.
+     */
+    public void log(String path, int skip, int limit, Consumer<CommitInfo> action) {
+        execute(repo -> {
+            repo.log(path, skip, limit, action);
+            return null;
+        });
+    }
+
+    /** Pass all the commits to ACTION in the order of their Hash Codes,
+     *  as log(SKIP, LIMIT, ACTION) does.
+     */
+    public void globalLog(int skip, int limit, Consumer<CommitInfo> action) {
+        execute(repo -> {
+            repo.globalLog(skip, limit, action);
+            return null;
+        });
+    }
+
+    /** Return the Hash Codes of the commits with a MESSAGE, in order. */
+    public List<ObjectId> find(String message) {
+        return execute(repo -> repo.find(message));
+    }
+
+    /** Return the Hash Codes of the commits whose message has PATTERN,
+     *  or starts with it if PATTERN starts with "^", in order.
+     */
+    public List<ObjectId> grep(String pattern) {
+        return execute(repo -> repo.grep(pattern));
+    }
+
+    /** Return the status of the repository and the work dir. */
+    public Status status() {
+        return execute(Repository::status);
+    }
+
+    /** Pass the changes of every file from FROM to TO to ACTION, in order of the path.
+     *  FROM and TO are branch names or commit ids, which may be abbreviated;
+     *  FROM is the current commit if it is null, and TO is the work dir if it is null.
+     */
+    public void diff(String from, String to, Consumer<FileDiff> action) {
+        execute(repo -> {
+            repo.diff(from, to, action);
+            return null;
+        });
+    }
+
+    /** Write a file of the current commit to the work dir. */
+    public void checkoutFile(String fileName) {
+        execute(repo -> {
+            repo.checkout(fileName);
+            return null;
+        });
+    }
+
+    /** Write a file of a commit to the work dir, the commit id may be abbreviated. */
+    public void checkoutFile(String commitId, String fileName) {
+        execute(repo -> {
+            repo.checkout(true, commitId, fileName);
+            return null;
+        });
+    }
+
+    /** Write the files of the head of a branch to the work dir, and make it the current one. */
+    public void checkoutBranch(String branchName) {
+        execute(repo -> {
+            repo.checkout(true, branchName);
+            return null;
+        });
+    }
+
+    /** Create a branch at the current commit. */
+    public void branch(String branchName) {
+        execute(repo -> {
+            repo.branch(branchName);
+            return null;
+        });
+    }
+
+    /** Remove a branch, but not its commits. */
+    public void rmBranch(String branchName) {
+        execute(repo -> {
+            repo.rmBranch(branchName);
+            return null;
+        });
+    }
+
+    /** Write the files of a commit to the work dir, and move the current branch to it. */
+    public void reset(String commitId) {
+        execute(repo -> {
+            repo.reset(commitId);
+            return null;
+        });
+    }
+
+    /** Merge a branch into the current branch. */
+    public MergeResult merge(String branchName) {
+        return execute(repo -> repo.merge(branchName));
+    }
+
+    /** Add a remote with the PATH of its .gitlet directory, whose separators are "/". */
+    public void addRemote(String remoteName, String path) {
+        execute(repo -> {
+            repo.addRemote(remoteName, path);
+            return null;
+        });
+    }
+
+    /** Remove a remote, but not the branches fetched from it. */
+    public void rmRemote(String remoteName) {
+        execute(repo -> {
+            repo.rmRemote(remoteName);
+            return null;
+        });
+    }
+
+    /** Copy a branch of a remote into the branch REMOTENAME/BRANCHNAME,
+     *  with only the objects which are missing.
+     */
+    public void fetch(String remoteName, String branchName) {
+        execute(repo -> {
+            repo.fetch(remoteName, branchName);
+            return null;
+        });
+    }
+
+    /** Copy the current commit into a branch of a remote, whose head must be in its history. */
+    public void push(String remoteName, String branchName) {
+        execute(repo -> {
+            repo.push(remoteName, branchName);
+            return null;
+        });
+    }
+
+    /** Fetch a branch of a remote, then merge it into the current branch. */
+    public MergeResult pull(String remoteName, String branchName) {
+        return execute(repo -> repo.pull(remoteName, branchName));
+    }
+
+    /** Pack the blobs, or encode them again with the default codec if RECOMPRESS. */
+    public void gc(boolean recompress) {
+        execute(repo -> {
+            repo.gc(recompress);
+            return null;
+        });
+    }
+
+    /** Run a COMMAND on the Repository, which is read again if another process changed it. */
+    private <T> T execute(Function<Repository, T> command) {
+        synchronized (lock) {
+            if (repository != null && !fingerprint().equals(state)) {
+                discard();
+            }
+            if (repository == null) {
+                repository = Repository.fromFile(workDir);
+            }
+            return run(command);
+        }
+    }
+
+    /** Run a COMMAND on the Repository and flush it, the lock is held.
+     *  A refused command has not changed the files, but the caches it read are kept.
+     */
+    private <T> T run(Function<Repository, T> command) {
+        try {
+            T result = command.apply(repository);
+            repository.flush();
+            return result;
+        } catch (CommandException e) {
+            repository.flush();
+            throw e;
+        } catch (RuntimeException | Error e) {
+            discard();
+            throw e;
+        } finally {
+            state = fingerprint();
+        }
+    }
+
+    /** Drop the Repository, so the next command reads it again. */
+    private void discard() {
+        if (repository != null) {
+            repository.close();
+            repository = null;
+        }
+    }
+
+    /**
+     * Return the stat data of the directories of .gitlet and the files of its obj directory.
+     * Every file of the repository is replaced by renaming a temp file in its directory,
+     * which changes the time of the directory, so another process changed the repository
+     * if the result is not the same as after the last command.
+     */
+    private String fingerprint() {
+        List<File> files = new ArrayList<>();
+        files.add(gitletDir);
+        for (File dir : new File[] {gitletDir, Repository.objDir(gitletDir)}) {
+            File[] children = dir.listFiles();
+            if (children != null) {
+                Arrays.sort(children);
+                files.addAll(Arrays.asList(children));
+            }
+        }
+        StringBuilder result = new StringBuilder();
+        for (File file : files) {
+            try {
+                BasicFileAttributes attrs = Files.readAttributes(file.toPath(),
+                        BasicFileAttributes.class);
+                result.append(file.getName()).append(' ')
+                        .append(attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS)).append(' ')
+                        .append(attrs.size()).append('\n');
+            } catch (IOException e) {
+                result.append(file.getName()).append(" -\n"); // deleted while listed.
+            }
+        }
+        return result.toString();
+    }
+}
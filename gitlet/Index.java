@@ -0,0 +1,211 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import static gitlet.Utils.*;
+
+/**
+ * This class represents the stat cache of the work dir.
+ * The Field entries is a TreeMap of the files whose Hash Code is known.
+ * Key: file name; Value: the size, modified time, inode and Hash Code of the file.
+ * A file is only hashed again if its size, modified time or inode has changed.
+ * BUT SHOULD Call flush() to save the changes to disk.
+ * A damaged file is only a cache, so it is rebuilt instead of being an error.
+ */
+public class Index {
+
+    /** The file that saves the encoded Field: Index, next to the stage. */
+    private final File indexFile;
+
+    /** The work dir whose files are cached. */
+    private final File workDir;
+
+    /** A TreeMap of the stat data and Hash Codes of the files in the work dir. */
+    private TreeMap<String, Entry> entries;
+
+    /** The modified time of indexFile in nanoseconds, read when it is first needed. */
+    private long indexModified = -1;
+
+    /** Whether the Field entries has been changed since it was read. */
+    private boolean changed;
+
+    /** Entry is a support class which respects the stat data of a file. */
+    private static class Entry implements Serializable {
+
+        /** Kept the same as the entries of an old stat cache, whose Hash Codes were
+         *  Strings, so it fails to be read as a cache of another form and is rebuilt.
+         */
+        private static final long serialVersionUID = 6791096200976567491L;
+
+        /** The size of the file. */
+        private final long size;
+
+        /** The modified time of the file in nanoseconds. */
+        private final long modified;
+
+        /** The inode of the file, 0 if the file system does not support it. */
+        private final long inode;
+
+        /** The Hash Code of the file. */
+        private final ObjectId hash;
+
+        /** The constructor of an entry. */
+        private Entry(long size, long modified, long inode, ObjectId hash) {
+            this.size = size;
+            this.modified = modified;
+            this.inode = inode;
+            this.hash = hash;
+        }
+
+        /** Return if the stat data of THAT is the same as this entry. */
+        private boolean sameStat(Entry that) {
+            return size == that.size && modified == that.modified && inode == that.inode;
+        }
+    }
+
+    /** Snapshot is a support class which saves the Fields of the stat cache to disk. */
+    private static class Snapshot implements Serializable {
+
+        /** Kept the same as the snapshots of an old stat cache. */
+        private static final long serialVersionUID = 3345643918094683122L;
+
+        /** The entries of the stat cache. */
+        private final TreeMap<String, Entry> entries;
+
+        /** The constructor of a snapshot. */
+        private Snapshot(TreeMap<String, Entry> entries) {
+            this.entries = entries;
+        }
+
+        /** Return the snapshot encoded by ObjectCodec. */
+        private byte[] encode() {
+            ObjectCodec.Output out = new ObjectCodec.Output(ObjectCodec.INDEX)
+                    .writeCount(entries.size());
+            entries.forEach((name, entry) -> out.writeString(name).writeLong(entry.size)
+                    .writeLong(entry.modified).writeLong(entry.inode).writeHash(entry.hash));
+            return out.toByteArray();
+        }
+
+        /** Return the snapshot decoded from IN. */
+        private static Snapshot decode(ObjectCodec.Input in) {
+            TreeMap<String, Entry> entries = new TreeMap<>();
+            for (int i = in.readCount(); i > 0; i--) {
+                entries.put(in.readString(), new Entry(in.readLong(), in.readLong(),
+                        in.readLong(), in.readHash()));
+            }
+            return new Snapshot(entries);
+        }
+    }
+
+    /** The Field entries of the files of WORKDIR is generated by decoding the disk file
+     * of the repository of GITLETDIR, or generate a new one if not exist.
+     */
+    public Index(File workDir, File gitletDir) {
+        this.workDir = workDir;
+        this.indexFile = join(Repository.objDir(gitletDir), "index");
+        try {
+            Snapshot snapshot = ObjectCodec.read(indexFile, ObjectCodec.INDEX,
+                    Snapshot::decode, Snapshot.class);
+            this.entries = snapshot.entries;
+            this.changed = !ObjectCodec.isEncoded(indexFile);
+        } catch (IllegalArgumentException e) {
+            this.entries = new TreeMap<>();
+        }
+    }
+
+    /** Return the Hash Code of a file in the work dir, or null if it is not a regular file,
+     *  e.g. a tracked file has been replaced by a directory.
+     *  The file is only read and hashed if its stat data has changed,
+     *  or if it was not modified before indexFile was written: a file changed later
+     *  in the same tick of the file system would keep the stat data of its entry.
+     */
+    public ObjectId getHash(String fileName) {
+        File file = join(workDir, fileName);
+        if (!file.isFile()) {
+            return null;
+        }
+        Entry stat = stat(file, null);
+        Entry entry = entries.get(fileName);
+        if (entry != null && entry.sameStat(stat)
+                && entry.modified < indexModified()) {
+            return entry.hash;
+        }
+        ObjectId hashCode = ObjectId.fromHex(sha1OfFile(file));
+        entries.put(fileName, stat(file, hashCode));
+        changed = true;
+        return hashCode;
+    }
+
+    /** Record the Hash Code of a file in the work dir which has just been read or written. */
+    public void setHash(String fileName, ObjectId hashCode) {
+        entries.put(fileName, stat(join(workDir, fileName), hashCode));
+        changed = true;
+    }
+
+    /** Forget a file, e.g. when it is deleted from the work dir. */
+    public void remove(String fileName) {
+        if (entries.remove(fileName) != null) {
+            changed = true;
+        }
+    }
+
+    /** Encode the Field entries and write it by the JOURNAL, if it has been changed. */
+    public void flush(Journal journal) {
+        if (!changed) {
+            return;
+        }
+        journal.write(indexFile, new Snapshot(entries).encode());
+        indexModified = -1;
+        changed = false;
+    }
+
+    /** Return the modified time of indexFile in nanoseconds,
+     *  or Long.MIN_VALUE if it is not written, so no entry is trusted.
+     */
+    private long indexModified() {
+        if (indexModified < 0) {
+            try {
+                indexModified = Files.getLastModifiedTime(indexFile.toPath())
+                        .to(TimeUnit.NANOSECONDS);
+            } catch (IOException e) {
+                return Long.MIN_VALUE;
+            }
+        }
+        return indexModified;
+    }
+
+    /** Return the stat data of a file with a Hash Code. */
+    private static Entry stat(File file, ObjectId hashCode) {
+        try {
+            Map<String, Object> attrs = Files.readAttributes(file.toPath(),
+                    "unix:size,lastModifiedTime,ino");
+            return new Entry((Long) attrs.get("size"),
+                    ((FileTime) attrs.get("lastModifiedTime")).to(TimeUnit.NANOSECONDS),
+                    (Long) attrs.get("ino"), hashCode);
+        } catch (UnsupportedOperationException | IllegalArgumentException e) {
+            return statBasic(file, hashCode);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    /** Return the stat data of a file without the inode, for the non-unix file systems. */
+    private static Entry statBasic(File file, ObjectId hashCode) {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(file.toPath(),
+                    BasicFileAttributes.class);
+            return new Entry(attrs.size(),
+                    attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS), 0, hashCode);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static gitlet.Utils.*;
+
+/**
+ * This class writes a group of files of the repository as one atomic change.
+ * The new contents are written to temp files under the journal directory of a .gitlet
+ * directory and forced to the disk.
+ * Then the list of the temp files and their real files is written to its COMMIT file,
+ * which is the point of no return.
+ * Then every temp file is renamed over its real file, and the journal is cleared.
+ * If the program is killed, recover() finishes or discards the change when the
+ * repository is opened again, so the files are either all old or all new.
+ */
+class Journal {
+
+    /** The .gitlet directory, which the real files are relative to. */
+    private final File gitletDir;
+
+    /** The directory of the temp files of a change. */
+    private final File journalDir;
+
+    /** The file that lists the temp files and the real files of a committed change,
+     *  one pair per line, separated by a tab.
+     */
+    private final File commitFile;
+
+    /** The temp files written so far, in order. */
+    private final List<File> temps = new ArrayList<>();
+
+    /** The real files of the temp files, in order. */
+    private final List<File> targets = new ArrayList<>();
+
+    /** The journal of the files of the repository of GITLETDIR. */
+    Journal(File gitletDir) {
+        this.gitletDir = gitletDir;
+        this.journalDir = join(gitletDir, "journal");
+        this.commitFile = join(journalDir, "COMMIT");
+    }
+
+    /** Write the CONTENTS, e.g. encoded by ObjectCodec, as the new contents of FILE,
+     *  when the journal commits.
+     */
+    void write(File file, byte[] contents) {
+        if (!journalDir.exists()) {
+            journalDir.mkdir();
+        }
+        try {
+            temps.add(writeTemp(journalDir, file.getName(), contents));
+            targets.add(file);
+        } catch (IOException e) {
+            throw error("Cannot write %s: %s", file.getName(), e.getMessage());
+        }
+    }
+
+    /** Replace all the real files by the temp files, as one atomic change. */
+    void commit() {
+        if (temps.isEmpty()) {
+            return;
+        }
+        StringBuilder list = new StringBuilder();
+        for (int i = 0; i < temps.size(); i++) {
+            list.append(temps.get(i).getName()).append('\t')
+                    .append(relativePath(targets.get(i))).append('\n');
+        }
+        syncDir(journalDir);
+        writeAtomic(commitFile, list.toString());
+        apply(temps, targets);
+        temps.clear();
+        targets.clear();
+    }
+
+    /** Finish the change which was committed but not applied by a killed command,
+     *  or discard the temp files of a change which was not committed.
+     */
+    void recover() {
+        if (!journalDir.exists()) {
+            return;
+        }
+        if (commitFile.exists()) {
+            List<File> temps = new ArrayList<>();
+            List<File> targets = new ArrayList<>();
+            for (String line : readContentsAsString(commitFile).split("\n")) {
+                String[] pair = line.split("\t", 2);
+                if (pair.length == 2) {
+                    temps.add(join(journalDir, pair[0]));
+                    targets.add(join(gitletDir, pair[1]));
+                }
+            }
+            apply(temps, targets);
+        } else {
+            clear();
+        }
+    }
+
+    /** Rename the TEMPS over the TARGETS which are not renamed yet, then clear the journal. */
+    private void apply(List<File> temps, List<File> targets) {
+        try {
+            for (int i = 0; i < temps.size(); i++) {
+                File temp = temps.get(i);
+                if (temp.exists()) {
+                    Files.move(temp.toPath(), targets.get(i).toPath(),
+                            StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                    syncDir(targets.get(i).getParentFile());
+                }
+            }
+        } catch (IOException e) {
+            throw error("Cannot apply the journal: %s", e.getMessage());
+        }
+        commitFile.delete();
+        clear();
+    }
+
+    /** Delete the temp files left in the journal. */
+    private void clear() {
+        List<String> files = plainFilenamesIn(journalDir);
+        if (files != null) {
+            for (String file : files) {
+                join(journalDir, file).delete();
+            }
+        }
+    }
+
+    /** Return the path of FILE relative to the .gitlet directory. */
+    private String relativePath(File file) {
+        return gitletDir.getAbsoluteFile().toPath()
+                .relativize(file.getAbsoluteFile().toPath()).toString();
+    }
+}
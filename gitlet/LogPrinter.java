@@ -0,0 +1,34 @@
+package gitlet;
+
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.function.Consumer;
+
+/**
+ * This class prints the logs of the commits one by one as they are walked,
+ * through a buffered writer, so the history is never collected in memory.
+ * The walks of Gitlet pass only the commits to print, and stop as soon as
+ * the limit is reached, so `log -n 20` reads only 20 commits.
+ */
+class LogPrinter implements Consumer<CommitInfo> {
+
+    /** The writer of the standard output. */
+    private final PrintWriter out = new PrintWriter(new BufferedWriter(
+            new OutputStreamWriter(System.out), Utils.BUFFER_SIZE));
+
+    /** Print the Fields of a commit. */
+    @Override
+    public void accept(CommitInfo commit) {
+        out.println("===");
+        out.println("commit " + commit.id().toHex());
+        out.println("Date: " + commit.date());
+        out.println(commit.message());
+        out.println(" ");
+    }
+
+    /** Write the buffered logs to the standard output. */
+    void flush() {
+        out.flush();
+    }
+}
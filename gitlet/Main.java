@@ -1,11 +1,16 @@
 package gitlet;
 
-import static gitlet.Utils.error;
+import java.util.Arrays;
+import java.util.List;
+
+import static gitlet.CommandException.NotFoundException;
+import static gitlet.CommandException.RefusedException;
+import static gitlet.CommandException.UsageException;
 
 /** Driver class for Gitlet, a subset of the Git version-control system.
  * It takes in arguments from the command line and based on the command
- * (the first element of args array) calls the corresponding command in Repository 
- * which will actually execute the logic of the command.
+ * (the first element of args array) calls the corresponding command in Gitlet,
+ * then prints its result.
  * It also validates the arguments based on the command to ensure 
  * that enough arguments were passed in.
  * 
@@ -14,85 +19,281 @@ import static gitlet.Utils.error;
 public class Main {
 
     /**
-     * Call methods in Class REPOSITORY after checking the number of ARGS.
+     * Call methods in Class GITLET after checking the number of ARGS.
      * Usage: java gitlet.Main ARGS, where ARGS contains
      *  <COMMAND> <OPERAND1> <OPERAND2> ... 
+     * The command is forwarded to the Daemon of the repository if it is running.
      */
     public static void main(String[] args) {
+        if (args.length > 0 && !(args.length == 1 && args[0].equals("daemon"))) {
+            Integer exitCode = Daemon.forward(args);
+            if (exitCode != null) {
+                if (exitCode != 0) {
+                    System.exit(exitCode);
+                }
+                return;
+            }
+        }
+        run(args);
+    }
+
+    /**
+     * Run the command in ARGS in this process through Gitlet, and print its result.
+     * A refused command prints its message, as a command which succeeds.
+     */
+    static void run(String[] args) {
+        try {
+            dispatch(args);
+        } catch (CommandException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+
+    /** Call the method in Class GITLET of the command in ARGS. */
+    private static void dispatch(String[] args) {
         if (args.length == 0) { // if NO command
-            Repository.exitWithMsg("Please enter a command.");
+            throw new UsageException("Please enter a command.");
         }
 
         switch (args[0]) {
             case "init" -> {
                 validateNumArgs(args, 1);
-                Repository.init();
+                Gitlet.init();
             }
             case "add" -> {
-                validateNumArgs(args, 2);
-                Repository.fromFile().add(args[1]);
+                if (args.length < 2) {
+                    throw new UsageException("Incorrect operands.");
+                }
+                Gitlet.open().add(Arrays.copyOfRange(args, 1, args.length));
             }
             case "commit" -> {
                 validateNumArgs(args, 2);
-                Repository.fromFile().commit(args[1]);
+                Gitlet.open().commit(args[1]);
             }
             case "rm" -> {
                 validateNumArgs(args, 2);
-                Repository.fromFile().rm(args[1]);
+                Gitlet.open().rm(args[1]);
             }
             case "log" -> {
-                validateNumArgs(args, 1);
-                Repository.fromFile().log();
+                LogOptions options = LogOptions.parse(args, true);
+                LogPrinter printer = new LogPrinter();
+                if (options.path() != null) {
+                    Gitlet.open().log(options.path(), options.skip(), options.limit(), printer);
+                } else {
+                    Gitlet.open().log(options.skip(), options.limit(), printer);
+                }
+                printer.flush();
             }
             case "global-log" -> {
-                validateNumArgs(args, 1);
-                Repository.fromFile().globalLog();
+                LogOptions options = LogOptions.parse(args, false);
+                LogPrinter printer = new LogPrinter();
+                Gitlet.open().globalLog(options.skip(), options.limit(), printer);
+                printer.flush();
             }
             case "find" -> {
-                validateNumArgs(args, 2);
-                Repository.fromFile().find(args[1]);
+                if (checkNumArgs(args, 3) && args[1].equals("--grep")) {
+                    printFound(Gitlet.open().grep(args[2]));
+                } else {
+                    validateNumArgs(args, 2);
+                    printFound(Gitlet.open().find(args[1]));
+                }
             }
             case "status" -> {
                 validateNumArgs(args, 1);
-                Repository.fromFile().status();
+                printStatus(Gitlet.open().status());
+            }
+            case "diff" -> {
+                if (args.length > 3) {
+                    validateNumArgs(args, 3);
+                }
+                DiffPrinter printer = new DiffPrinter();
+                Gitlet.open().diff(args.length > 1 ? args[1] : null,
+                        args.length > 2 ? args[2] : null, printer);
+                printer.flush();
             }
             case "checkout" -> {
                 if (checkNumArgs(args, 2) || checkNumArgs(args, 3) || checkNumArgs(args, 4)) {
-                    Repository.fromFile().checkout(args);
+                    checkout(args);
                 } else {
                     validateNumArgs(args, 1);
                 }
             }
             case "branch" -> {
                 validateNumArgs(args, 2);
-                Repository.fromFile().branch(args[1]);
+                Gitlet.open().branch(args[1]);
             }
             case "rm-branch" -> {
                 validateNumArgs(args, 2);
-                Repository.fromFile().rmBranch(args[1]);
+                Gitlet.open().rmBranch(args[1]);
             }
             case "reset" -> {
                 validateNumArgs(args, 2);
-                Repository.fromFile().reset(args[1]);
+                Gitlet.open().reset(args[1]);
             }
             case "merge" -> {
                 validateNumArgs(args, 2);
-                Repository.fromFile().merge(args[1]);
+                printMerge(Gitlet.open().merge(args[1]));
+            }
+            case "add-remote" -> {
+                validateNumArgs(args, 3);
+                Gitlet.open().addRemote(args[1], args[2]);
+            }
+            case "rm-remote" -> {
+                validateNumArgs(args, 2);
+                Gitlet.open().rmRemote(args[1]);
+            }
+            case "fetch" -> {
+                validateNumArgs(args, 3);
+                Gitlet.open().fetch(args[1], args[2]);
+            }
+            case "push" -> {
+                validateNumArgs(args, 3);
+                Gitlet.open().push(args[1], args[2]);
+            }
+            case "pull" -> {
+                validateNumArgs(args, 3);
+                printMerge(Gitlet.open().pull(args[1], args[2]));
+            }
+            case "gc" -> {
+                if (checkNumArgs(args, 2) && args[1].equals("--recompress")) {
+                    Gitlet.open().gc(true);
+                } else {
+                    validateNumArgs(args, 1);
+                    Gitlet.open().gc(false);
+                }
+            }
+            case "daemon" -> {
+                if (checkNumArgs(args, 2) && args[1].equals("stop")) {
+                    throw new RefusedException("No daemon is running.");
+                }
+                if (checkNumArgs(args, 2) && args[1].equals("start")) {
+                    Daemon.start();
+                } else {
+                    validateNumArgs(args, 1);
+                    Daemon.serve();
+                }
+            }
+            default -> throw new UsageException("No command with that name exists.");
+        }
+    }
+
+    /** Call the checkout method of the form of ARGS:
+     *  checkout BRANCH, checkout -- FILE, or checkout COMMIT -- FILE.
+     */
+    private static void checkout(String[] args) {
+        final String split = "--";
+        if (args.length == 2) {
+            Gitlet.open().checkoutBranch(args[1]);
+        } else if (args.length == 3 && args[1].equals(split)) {
+            Gitlet.open().checkoutFile(args[2]);
+        } else if (args.length == 4 && args[2].equals(split)) {
+            Gitlet.open().checkoutFile(args[1], args[3]);
+        } else {
+            throw new UsageException("Incorrect operands.");
+        }
+    }
+
+    /** Print the Hash Codes of the commits found by find. */
+    private static void printFound(List<ObjectId> hashCodes) {
+        if (hashCodes.isEmpty()) {
+            throw new NotFoundException("Found no commit with that message.");
+        }
+        for (ObjectId hashCode : hashCodes) {
+            System.out.println(hashCode.toHex());
+        }
+    }
+
+    /** Print the sections of a STATUS, the current branch is marked by "*". */
+    private static void printStatus(Status status) {
+        List<String> branches = status.branches().stream()
+                .map(name -> name.equals(status.currentBranch()) ? "*" + name : name)
+                .toList();
+        printSection("Branches", branches);
+        printSection("Staged Files", status.staged());
+        printSection("Removed Files", status.removed());
+        printSection("Modifications Not Staged For Commit", status.modified());
+        printSection("Untracked Files", status.untracked());
+    }
+
+    /** A helper method for Method printStatus to deal with the format problem. */
+    private static void printSection(String title, List<String> lines) {
+        System.out.println("=== " + title + " ===");
+        for (String line : lines) {
+            System.out.println(line);
+        }
+        System.out.println();
+    }
+
+    /** Print the message of the RESULT of a merge, a clean merge prints nothing. */
+    private static void printMerge(MergeResult result) {
+        String message = switch (result) {
+            case UP_TO_DATE -> "Given branch is an ancestor of the current branch.";
+            case FAST_FORWARDED -> "Current branch fast-forwarded.";
+            case CONFLICTED -> "Encountered a merge conflict.";
+            case MERGED -> null;
+        };
+        if (message != null) {
+            System.out.println(message);
+        }
+    }
+
+    /**
+     * The options of log and global-log: [-n LIMIT] [--skip SKIP], and [-- PATH] for log.
+     *
+     * @param skip the number of commits not to print
+     * @param limit the number of commits to print, or Gitlet.NO_LIMIT
+     * @param path the path to limit the log to, or null
+     */
+    private record LogOptions(int skip, int limit, String path) {
+
+        /** Parse the options after the command in ARGS, the PATH is allowed if ALLOWPATH. */
+        static LogOptions parse(String[] args, boolean allowPath) {
+            int skip = 0;
+            int limit = Gitlet.NO_LIMIT;
+            String path = null;
+            for (int i = 1; i < args.length; i++) {
+                if (i + 1 >= args.length) {
+                    throw new UsageException("Incorrect operands.");
+                }
+                switch (args[i]) {
+                    case "-n" -> limit = parseCount(args[++i]);
+                    case "--skip" -> skip = parseCount(args[++i]);
+                    case "--" -> {
+                        if (!allowPath || i + 2 != args.length) {
+                            throw new UsageException("Incorrect operands.");
+                        }
+                        path = args[++i];
+                    }
+                    default -> throw new UsageException("Incorrect operands.");
+                }
+            }
+            return new LogOptions(skip, limit, path);
+        }
+
+        /** Parse a count which is not negative. */
+        private static int parseCount(String count) {
+            try {
+                int result = Integer.parseInt(count);
+                if (result >= 0) {
+                    return result;
+                }
+            } catch (NumberFormatException e) {
+                // fall through to the error.
             }
-            default -> Repository.exitWithMsg("No command with that name exists.");
+            throw new UsageException("Incorrect operands.");
         }
     }
 
     /**
      * Checks the number of arguments versus the expected number,
-     * Exit if they do not match.
+     * Refuse the command by a UsageException if they do not match.
      *
      * @param args Argument array from command line
      * @param n Number of expected arguments
      */
     public static void validateNumArgs(String[] args, int n) {
         if (!checkNumArgs(args, n)) {
-            throw error("Incorrect operands.");
+            throw new UsageException("Incorrect operands.");
         }
     }
 
@@ -0,0 +1,17 @@
+package gitlet;
+
+/** The result of a merge which is not refused. */
+public enum MergeResult {
+
+    /** The given branch is an ancestor of the current branch, nothing is changed. */
+    UP_TO_DATE,
+
+    /** The current branch is an ancestor of the given branch, which is checked out. */
+    FAST_FORWARDED,
+
+    /** The branches are merged by a new commit. */
+    MERGED,
+
+    /** The branches are merged by a new commit, with conflict markers in some files. */
+    CONFLICTED
+}
@@ -0,0 +1,208 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+
+import static gitlet.Utils.*;
+
+/**
+ * This class manages the inverted index of the commit messages, which finds the commits
+ * by their message without reading every commit object.
+ * A postings file lists the hex Hash Codes of the commits, one per line, and is only appended.
+ * 1. msgDir: a postings file for every message, named by the Hash Code of the message.
+ * 2. gramDir: a postings file for every 3 characters (trigram) in the messages,
+ *    named by the hex of the characters, to find the commits by a part of their message.
+ * The postings of a commit are written before the commit object, so a postings file may
+ * list a commit which does not exist after a crash, but never misses one.
+ * The postings are only candidates: the messages of the commits are always compared.
+ * An old repository is indexed once, the first time the index is used.
+ */
+class MessageIndex {
+
+    /** The name of the directory of the postings of the messages. */
+    private static final String MSG_DIR = "msg";
+
+    /** The name of the directory of the postings of the trigrams. */
+    private static final String GRAM_DIR = "gram";
+
+    /** The name of the file which exists once every commit has been indexed. */
+    private static final String BUILT_FILE = "built";
+
+    /** The number of characters of a trigram. */
+    private static final int GRAM_LENGTH = 3;
+
+    /** The directory of the index. */
+    private final File indexDir;
+
+    /** The directory of the postings of the messages. */
+    private final File msgDir;
+
+    /** The directory of the postings of the trigrams. */
+    private final File gramDir;
+
+    /** The file which exists once every commit has been indexed. */
+    private final File builtFile;
+
+    /** The commits, to index an old repository and to compare the messages. */
+    private final Commit commits;
+
+    /** The constructor of the index of the COMMITS of the repository of GITLETDIR. */
+    MessageIndex(File gitletDir, Commit commits) {
+        this.indexDir = indexDir(gitletDir);
+        this.msgDir = join(indexDir, MSG_DIR);
+        this.gramDir = join(indexDir, GRAM_DIR);
+        this.builtFile = join(indexDir, BUILT_FILE);
+        this.commits = commits;
+    }
+
+    /** Return the directory of the index of the repository of GITLETDIR. */
+    private static File indexDir(File gitletDir) {
+        return join(gitletDir, "find");
+    }
+
+    /** Add the postings of a new commit, before its object is written. */
+    void add(ObjectId hashCode, String message) {
+        if (!builtFile.exists()) {
+            build();
+        }
+        index(indexDir, hashCode, message);
+    }
+
+    /** Add the postings of a commit copied into the repository of GITLETDIR, which may be
+     *  another repository, before its object is written. An index which is not built yet
+     *  is left alone, since the commit is indexed when it is built.
+     */
+    static void add(File gitletDir, ObjectId hashCode, String message) {
+        File indexDir = indexDir(gitletDir);
+        if (join(indexDir, BUILT_FILE).exists()) {
+            index(indexDir, hashCode, message);
+        }
+    }
+
+    /** Index every commit of an old repository. */
+    private void build() {
+        msgDir.mkdirs();
+        gramDir.mkdirs();
+        for (Commit.Cmt commit : commits.getAllCommits()) {
+            index(indexDir, Commit.getHash(commit), Commit.getMessage(commit));
+        }
+        writeAtomic(builtFile, "");
+    }
+
+    /** Append the Hash Code of a commit to the postings of its message and trigrams
+     *  in the index directory INDEXDIR.
+     */
+    private static void index(File indexDir, ObjectId hashCode, String message) {
+        File msgFile = objectFile(join(indexDir, MSG_DIR), sha1(message));
+        msgFile.getParentFile().mkdirs();
+        append(msgFile, hashCode);
+        for (String gram : gramsOf(message)) {
+            append(join(indexDir, GRAM_DIR, gram), hashCode);
+        }
+    }
+
+    /** Return the Hash Codes of the commits whose message is MESSAGE, in order. */
+    TreeSet<ObjectId> find(String message) {
+        if (!builtFile.exists()) {
+            build();
+        }
+        TreeSet<ObjectId> result = new TreeSet<>();
+        for (ObjectId hashCode : read(objectFile(msgDir, sha1(message)))) {
+            Commit.Cmt commit = commits.getCommit(hashCode);
+            if (commit != null && Commit.getMessage(commit).equals(message)) {
+                result.add(hashCode);
+            }
+        }
+        return result;
+    }
+
+    /** Return the Hash Codes of the commits whose message has PATTERN, in order.
+     *  A PATTERN starting with "^" only matches the beginning of the message.
+     *  A pattern shorter than a trigram is compared with every commit.
+     */
+    TreeSet<ObjectId> grep(String pattern) {
+        if (!builtFile.exists()) {
+            build();
+        }
+        boolean isPrefix = pattern.startsWith("^");
+        String text = isPrefix ? pattern.substring(1) : pattern;
+
+        Collection<ObjectId> candidates = null;
+        for (String gram : gramsOf(text)) {
+            TreeSet<ObjectId> postings = new TreeSet<>(read(join(gramDir, gram)));
+            if (candidates != null) {
+                postings.retainAll(candidates);
+            }
+            candidates = postings;
+            if (candidates.isEmpty()) {
+                break;
+            }
+        }
+        if (candidates == null) {
+            candidates = commits.getAllHashCodes();
+        }
+
+        TreeSet<ObjectId> result = new TreeSet<>();
+        for (ObjectId hashCode : candidates) {
+            Commit.Cmt commit = commits.getCommit(hashCode);
+            if (commit == null) {
+                continue;
+            }
+            String message = Commit.getMessage(commit);
+            if (isPrefix ? message.startsWith(text) : message.contains(text)) {
+                result.add(hashCode);
+            }
+        }
+        return result;
+    }
+
+    /** Return the names of the postings files of the distinct trigrams of TEXT. */
+    private static TreeSet<String> gramsOf(String text) {
+        TreeSet<String> grams = new TreeSet<>();
+        for (int i = 0; i + GRAM_LENGTH <= text.length(); i++) {
+            StringBuilder name = new StringBuilder();
+            for (int j = i; j < i + GRAM_LENGTH; j++) {
+                name.append(String.format("%04x", (int) text.charAt(j)));
+            }
+            grams.add(name.toString());
+        }
+        return grams;
+    }
+
+    /** Append a Hash Code to a postings file.
+     *  A line which was only partly appended before is ended first.
+     */
+    private static void append(File file, ObjectId hashCode) {
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = channel.size();
+            ByteBuffer last = ByteBuffer.allocate(1);
+            String line = hashCode.toHex() + "\n";
+            if (size > 0 && channel.read(last, size - 1) == 1 && last.get(0) != '\n') {
+                line = "\n" + line;
+            }
+            channel.write(ByteBuffer.wrap(line.getBytes(StandardCharsets.UTF_8)), size);
+        } catch (IOException e) {
+            throw error("Cannot write the message index: %s", e.getMessage());
+        }
+    }
+
+    /** Return the Hash Codes in a postings file, which may not exist.
+     *  A line which was only partly appended is ignored.
+     */
+    private static List<ObjectId> read(File file) {
+        if (!file.exists()) {
+            return List.of();
+        }
+        return readContentsAsString(file).lines()
+                .filter(line -> line.length() == ObjectId.HEX_LENGTH)
+                .map(ObjectId::fromHex).toList();
+    }
+}
@@ -0,0 +1,384 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.Function;
+
+import static gitlet.Utils.*;
+
+/**
+ * The binary format of the objects and the files of the repository, which replaces
+ * Java serialisation: no class descriptors are saved, so a file is small and quick to
+ * parse, and does not depend on the shape of the classes.
+ * A file starts with a header: the MAGIC bytes, the VERSION of the format and the type
+ * of the file, so a file of another type or a newer version is never misread.
+ * The counts and the lengths are unsigned varints, a String is its length and its UTF-8
+ * bytes, and a Hash Code is the 20 raw bytes of its ObjectId.
+ * A file without the header is a Serialised file of an old repository. It is still read,
+ * and every file of an old repository is encoded again once by Repository, which writes
+ * the format file of the repository when it is done.
+ */
+class ObjectCodec {
+
+    /** The bytes at the beginning of every file in this format.
+     *  A Serialised file starts with 0xACED instead.
+     */
+    static final byte[] MAGIC = {0, 'G', 'L', 'O'};
+
+    /** The version of the format. */
+    static final byte VERSION = 1;
+
+    /** The length of the header. */
+    static final int HEADER_LENGTH = MAGIC.length + 2;
+
+    /** The type of a commit object. */
+    static final byte COMMIT = 1;
+
+    /** The type of a tree object. */
+    static final byte TREE = 2;
+
+    /** The type of a map of names to Hash Codes, e.g. the branches and the stage. */
+    static final byte HASH_MAP = 3;
+
+    /** The type of a map of names to Strings, e.g. the remotes. */
+    static final byte STRING_MAP = 4;
+
+    /** The type of a set of names, e.g. the removed stage. */
+    static final byte STRING_SET = 5;
+
+    /** The type of a single String, e.g. the current branch. */
+    static final byte STRING = 6;
+
+    /** The type of the stat cache. The type 7 was its old form with the time of the save,
+     *  which is no longer read, so the cache is rebuilt.
+     */
+    static final byte INDEX = 8;
+
+    /** Return the file of the repository of GITLETDIR,
+     *  which exists once every file of the repository is in this format.
+     */
+    static File formatFile(File gitletDir) {
+        return join(gitletDir, "format");
+    }
+
+    /** Return if the CONTENTS of a file are in this format. */
+    static boolean isEncoded(byte[] contents) {
+        return contents.length >= HEADER_LENGTH
+                && Arrays.equals(contents, 0, MAGIC.length, MAGIC, 0, MAGIC.length);
+    }
+
+    /** Return if a FILE is in this format, only its header is read. */
+    static boolean isEncoded(File file) {
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            return isEncoded(in.readNBytes(HEADER_LENGTH));
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Return the object of a FILE of a TYPE, decoded by DECODER,
+     * or read as a Serialised LEGACYCLASS if it is a file of an old repository.
+     * Throws IllegalArgumentException if it cannot be read, as Utils.readObject.
+     */
+    static <T extends Serializable> T read(File file, byte type,
+                                           Function<Input, T> decoder, Class<T> legacyClass) {
+        return read(file, type, decoder, legacy -> readObject(legacy, legacyClass));
+    }
+
+    /**
+     * Return the object of a FILE of a TYPE, decoded by DECODER,
+     * or by LEGACYREADER if it is a file of an old repository.
+     */
+    static <T> T read(File file, byte type,
+                      Function<Input, T> decoder, Function<File, T> legacyReader) {
+        byte[] contents = readContents(file);
+        if (!isEncoded(contents)) {
+            return legacyReader.apply(file);
+        }
+        return decoder.apply(new Input(contents, type));
+    }
+
+    /** Encode every object of an old repository under the sharded DIR by ENCODER,
+     *  which reads the Serialised object file. Each file is replaced atomically,
+     *  so an interrupted run is finished by the next one.
+     */
+    static void encodeAll(File dir, Function<File, byte[]> encoder) {
+        String[] shards = dir.list();
+        if (shards == null) {
+            return;
+        }
+        for (String shard : shards) {
+            List<String> files = plainFilenamesIn(join(dir, shard));
+            if (files == null) {
+                continue;
+            }
+            for (String name : files) {
+                File file = join(dir, shard, name);
+                if (!isEncoded(file)) {
+                    writeAtomic(file, encoder.apply(file));
+                }
+            }
+        }
+    }
+
+    /** Return the encoded map of names to Hash Codes. */
+    static byte[] encodeHashMap(Map<String, ObjectId> map) {
+        Output out = new Output(HASH_MAP).writeCount(map.size());
+        map.forEach((name, hashCode) -> out.writeString(name).writeHash(hashCode));
+        return out.toByteArray();
+    }
+
+    /** Return the map of names to Hash Codes of a FILE. */
+    static TreeMap<String, ObjectId> readHashMap(File file) {
+        return read(file, HASH_MAP, in -> {
+            TreeMap<String, ObjectId> map = new TreeMap<>();
+            for (int i = in.readCount(); i > 0; i--) {
+                map.put(in.readString(), in.readHash());
+            }
+            return map;
+        }, ObjectCodec::readLegacyHashMap);
+    }
+
+    /** Return the map of names to Hash Codes of a Serialised FILE of an old repository,
+     *  whose Hash Codes are hex Strings.
+     */
+    private static TreeMap<String, ObjectId> readLegacyHashMap(File file) {
+        return toHashMap(readLegacyMap(file, String.class));
+    }
+
+    /** Return the map of names to the ObjectIds of the hex Hash Codes of an old repository. */
+    static TreeMap<String, ObjectId> toHashMap(Map<String, String> hexMap) {
+        TreeMap<String, ObjectId> map = new TreeMap<>();
+        hexMap.forEach((name, hashCode) -> map.put(name, ObjectId.fromHex(hashCode)));
+        return map;
+    }
+
+    /** Return the map of names to the values of a VALUECLASS of a Serialised FILE
+     *  of an old repository. Every key and value is checked by its class as it is copied,
+     *  so a file of other classes is an error instead of a map of a wrong type.
+     */
+    static <V> TreeMap<String, V> readLegacyMap(File file, Class<V> valueClass) {
+        return copyOf(readObject(file, TreeMap.class), valueClass);
+    }
+
+    /** Return a copy of a Serialised MAP of names to the values of a VALUECLASS,
+     *  whose keys and values are checked by their classes.
+     */
+    static <V> TreeMap<String, V> copyOf(Map<?, ?> map, Class<V> valueClass) {
+        TreeMap<String, V> res = new TreeMap<>();
+        try {
+            map.forEach((name, value) -> res.put((String) name, valueClass.cast(value)));
+        } catch (ClassCastException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+        return res;
+    }
+
+    /** Return the set of names of a Serialised FILE of an old repository,
+     *  whose elements are checked as they are copied.
+     */
+    private static TreeSet<String> readLegacySet(File file) {
+        TreeSet<String> res = new TreeSet<>();
+        try {
+            for (Object name : readObject(file, TreeSet.class)) {
+                res.add((String) name);
+            }
+        } catch (ClassCastException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+        return res;
+    }
+
+    /** Return the encoded map of names to Strings. */
+    static byte[] encodeStringMap(Map<String, String> map) {
+        Output out = new Output(STRING_MAP).writeCount(map.size());
+        map.forEach((name, value) -> out.writeString(name).writeString(value));
+        return out.toByteArray();
+    }
+
+    /** Return the map of names to Strings of a FILE. */
+    static TreeMap<String, String> readStringMap(File file) {
+        return read(file, STRING_MAP, in -> {
+            TreeMap<String, String> map = new TreeMap<>();
+            for (int i = in.readCount(); i > 0; i--) {
+                map.put(in.readString(), in.readString());
+            }
+            return map;
+        }, legacy -> readLegacyMap(legacy, String.class));
+    }
+
+    /** Return the encoded set of names. */
+    static byte[] encodeStringSet(Collection<String> set) {
+        Output out = new Output(STRING_SET).writeCount(set.size());
+        set.forEach(out::writeString);
+        return out.toByteArray();
+    }
+
+    /** Return the set of names of a FILE. */
+    static TreeSet<String> readStringSet(File file) {
+        return read(file, STRING_SET, in -> {
+            TreeSet<String> set = new TreeSet<>();
+            for (int i = in.readCount(); i > 0; i--) {
+                set.add(in.readString());
+            }
+            return set;
+        }, ObjectCodec::readLegacySet);
+    }
+
+    /** Return the encoded String. */
+    static byte[] encodeString(String value) {
+        return new Output(STRING).writeString(value).toByteArray();
+    }
+
+    /** Return the String of a FILE. */
+    static String readString(File file) {
+        return read(file, STRING, Input::readString, String.class);
+    }
+
+    /** Output is a support class which encodes the fields of a file after its header. */
+    static class Output {
+
+        /** The encoded bytes. */
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        /** The stream to the encoded bytes. */
+        private final DataOutputStream out = new DataOutputStream(bytes);
+
+        /** Start a file of a TYPE by its header. */
+        Output(byte type) {
+            bytes.writeBytes(MAGIC);
+            bytes.write(VERSION);
+            bytes.write(type);
+        }
+
+        /** Write a count or a length as an unsigned varint, 7 bits per byte. */
+        Output writeCount(int count) {
+            while ((count & ~0x7F) != 0) {
+                bytes.write((count & 0x7F) | 0x80);
+                count >>>= 7;
+            }
+            bytes.write(count);
+            return this;
+        }
+
+        /** Write a String as its length and its UTF-8 bytes. */
+        Output writeString(String value) {
+            byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+            writeCount(utf8.length);
+            bytes.writeBytes(utf8);
+            return this;
+        }
+
+        /** Write a Hash Code as its raw bytes. */
+        Output writeHash(ObjectId id) {
+            bytes.writeBytes(id.toBytes());
+            return this;
+        }
+
+        /** Write a long in 8 bytes. */
+        Output writeLong(long value) {
+            try {
+                out.writeLong(value);
+            } catch (IOException e) { // never thrown by a ByteArrayOutputStream.
+                throw error("Cannot encode: %s", e.getMessage());
+            }
+            return this;
+        }
+
+        /** Return the encoded bytes. */
+        byte[] toByteArray() {
+            return bytes.toByteArray();
+        }
+    }
+
+    /** Input is a support class which decodes the fields of a file after its header.
+     *  A file which is cut short or broken throws IllegalArgumentException.
+     */
+    static class Input {
+
+        /** The stream of the fields. */
+        private final DataInputStream in;
+
+        /** Check the header of the CONTENTS of a file of a TYPE. */
+        Input(byte[] contents, byte type) {
+            if (!isEncoded(contents) || contents[MAGIC.length] > VERSION) {
+                throw new IllegalArgumentException("unknown format");
+            }
+            if (contents[MAGIC.length + 1] != type) {
+                throw new IllegalArgumentException("not a file of type " + type);
+            }
+            this.in = new DataInputStream(new ByteArrayInputStream(
+                    contents, HEADER_LENGTH, contents.length - HEADER_LENGTH));
+        }
+
+        /** Read a count or a length written by Output.writeCount. */
+        int readCount() {
+            int count = 0;
+            for (int shift = 0; shift < Integer.SIZE; shift += 7) {
+                int b = readByte();
+                count |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return count;
+                }
+            }
+            throw new IllegalArgumentException("broken count");
+        }
+
+        /** Read a String written by Output.writeString. */
+        String readString() {
+            return new String(readBytes(readCount()), StandardCharsets.UTF_8);
+        }
+
+        /** Read a Hash Code written by Output.writeHash. */
+        ObjectId readHash() {
+            return ObjectId.fromBytes(readBytes(ObjectId.LENGTH));
+        }
+
+        /** Read a long written by Output.writeLong. */
+        long readLong() {
+            try {
+                return in.readLong();
+            } catch (IOException e) {
+                throw new IllegalArgumentException("the file is cut short");
+            }
+        }
+
+        /** Read a byte. */
+        private int readByte() {
+            try {
+                return in.readUnsignedByte();
+            } catch (IOException e) {
+                throw new IllegalArgumentException("the file is cut short");
+            }
+        }
+
+        /** Read LENGTH bytes. */
+        private byte[] readBytes(int length) {
+            try {
+                if (length > in.available()) {
+                    throw new IllegalArgumentException("the file is cut short");
+                }
+                byte[] result = new byte[length];
+                in.readFully(result);
+                return result;
+            } catch (IOException e) {
+                throw new IllegalArgumentException("the file is cut short");
+            }
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package gitlet;
+
+import java.nio.ByteBuffer;
+import java.util.HexFormat;
+
+import static gitlet.Utils.*;
+
+/**
+ * The Hash Code of an object as a value: the 20 bytes of its SHA-1 in 2 longs and an int.
+ * It takes 32 bytes of the heap instead of about 80 for a String of 40 hex characters,
+ * and 2 Hash Codes are compared by 3 numbers instead of 40 characters.
+ * The objects in memory and in the encoded files keep ObjectIds, a Hash Code is only
+ * formatted as hex where it is shown or names a file.
+ * ObjectIds are ordered the same as their hex Strings.
+ */
+public final class ObjectId implements Comparable<ObjectId> {
+
+    /** The length of a Hash Code in bytes. */
+    public static final int LENGTH = 20;
+
+    /** The length of a Hash Code in hex characters. */
+    public static final int HEX_LENGTH = 2 * LENGTH;
+
+    /** The formatter of the hex characters. */
+    private static final HexFormat HEX = HexFormat.of();
+
+    /** The bytes 0 to 7 of the Hash Code. */
+    private final long high;
+
+    /** The bytes 8 to 15 of the Hash Code. */
+    private final long middle;
+
+    /** The bytes 16 to 19 of the Hash Code. */
+    private final int low;
+
+    /** The constructor of a Hash Code by its 3 parts. */
+    private ObjectId(long high, long middle, int low) {
+        this.high = high;
+        this.middle = middle;
+        this.low = low;
+    }
+
+    /** Return the ObjectId of a Hash Code of 40 hex characters, or null if it is null. */
+    public static ObjectId fromHex(String hex) {
+        if (hex == null) {
+            return null;
+        }
+        if (hex.length() != HEX_LENGTH) {
+            throw error("The Hash Code %s is invalid!", hex);
+        }
+        try {
+            return new ObjectId(Long.parseUnsignedLong(hex, 0, 16, 16),
+                    Long.parseUnsignedLong(hex, 16, 32, 16),
+                    Integer.parseUnsignedInt(hex, 32, HEX_LENGTH, 16));
+        } catch (NumberFormatException e) {
+            throw error("The Hash Code %s is invalid!", hex);
+        }
+    }
+
+    /** Return if a String is a Hash Code of 40 lower case hex characters, as sha1 returns. */
+    public static boolean isHex(String hex) {
+        if (hex.length() != HEX_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < HEX_LENGTH; i++) {
+            if (Character.digit(hex.charAt(i), 16) < 0 || Character.isUpperCase(hex.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Return the ObjectId of the LENGTH raw bytes of a Hash Code. */
+    public static ObjectId fromBytes(byte[] bytes) {
+        if (bytes.length != LENGTH) {
+            throw error("The Hash Code has %d bytes!", bytes.length);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        return new ObjectId(buffer.getLong(), buffer.getLong(), buffer.getInt());
+    }
+
+    /** Return the raw bytes of this Hash Code. */
+    public byte[] toBytes() {
+        return ByteBuffer.allocate(LENGTH).putLong(high).putLong(middle).putInt(low).array();
+    }
+
+    /** Return the 40 hex characters of this Hash Code, in the same form as sha1. */
+    public String toHex() {
+        return HEX.toHexDigits(high) + HEX.toHexDigits(middle) + HEX.toHexDigits(low);
+    }
+
+    /** Return the I-th group of 16 bits of this Hash Code, from the first bytes,
+     *  as the unsigned number of the hex characters 4 * I to 4 * I + 4. I is less than 4.
+     */
+    int getBits(int i) {
+        return (int) (high >>> (Long.SIZE - 16 * (i + 1))) & 0xFFFF;
+    }
+
+    /** Return if O is an ObjectId of the same Hash Code. */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ObjectId)) {
+            return false;
+        }
+        ObjectId that = (ObjectId) o;
+        return high == that.high && middle == that.middle && low == that.low;
+    }
+
+    /** The bits of a Hash Code are already uniform, so its first bytes are used directly. */
+    @Override
+    public int hashCode() {
+        return (int) (high >>> Integer.SIZE);
+    }
+
+    /** Compare 2 Hash Codes in the order of their hex Strings. */
+    @Override
+    public int compareTo(ObjectId that) {
+        if (high != that.high) {
+            return Long.compareUnsigned(high, that.high);
+        }
+        if (middle != that.middle) {
+            return Long.compareUnsigned(middle, that.middle);
+        }
+        return Integer.compareUnsigned(low, that.low);
+    }
+
+    /** Return the hex String, as it is shown. */
+    @Override
+    public String toString() {
+        return toHex();
+    }
+}
@@ -0,0 +1,432 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import static gitlet.Utils.*;
+
+/**
+ * This class represents a pack file, which saves many blobs in a single file,
+ * and its index file, which finds a blob in the pack file by its Hash Code.
+ * A pack file starts with PACK_MAGIC and VERSION, followed by the entries of the blobs. An entry is one of:
+ * FULL, the deflated contents; or
+ * DELTA, the offset of the entry of its base, the deflated Delta against the base.
+ * An index file is memory-mapped, and starts with INDEX_MAGIC and VERSION,
+ * followed by a fanout table,
+ * whose entry i is the number of blobs whose Hash Code starts with a byte <= i,
+ * the sorted 20-byte Hash Codes and the 8-byte offsets of their entries.
+ */
+class Pack {
+
+    /** The extension of the pack files. */
+    static final String PACK_EXT = ".pack";
+
+    /** The extension of the index files. */
+    static final String INDEX_EXT = ".idx";
+
+    /** The maximum length of a chain of deltas. */
+    static final int MAX_DEPTH = 50;
+
+    /** The bytes at the beginning of every pack file. */
+    private static final byte[] PACK_MAGIC = {'P', 'A', 'C', 'K'};
+
+    /** The bytes at the beginning of every index file. */
+    private static final byte[] INDEX_MAGIC = {'P', 'I', 'D', 'X'};
+
+    /** The version of the format of the pack files and the index files. */
+    private static final int VERSION = 1;
+
+    /** The type of the entry which saves the full contents of a blob. */
+    private static final int FULL = 1;
+
+    /** The type of the entry which saves a delta against another entry. */
+    private static final int DELTA = 2;
+
+    /** The number of entries of the fanout table. */
+    private static final int FANOUT = 256;
+
+    /** The length of the header of an index file. */
+    private static final int INDEX_HEADER = INDEX_MAGIC.length + 4;
+
+    /** The pack file. */
+    private final File packFile;
+
+    /** The contents of the index file. */
+    private final ByteBuffer index;
+
+    /** The number of blobs in the pack file. */
+    private final int count;
+
+    /** The channel to read the pack file, opened when first used. */
+    private FileChannel channel;
+
+    /** Read the index file of a pack file. */
+    Pack(File indexFile) {
+        String name = indexFile.getName();
+        this.packFile = join(indexFile.getParentFile(),
+                name.substring(0, name.length() - INDEX_EXT.length()) + PACK_EXT);
+        this.index = map(indexFile);
+        byte[] magic = new byte[INDEX_MAGIC.length];
+        index.get(0, magic);
+        if (!Arrays.equals(magic, INDEX_MAGIC) || index.getInt(INDEX_MAGIC.length) != VERSION) {
+            throw error("The pack index %s is broken!", name);
+        }
+        this.count = fanout(FANOUT - 1);
+    }
+
+    /** Return the contents of an index file, which is memory-mapped,
+     *  so only the pages of the fanout table and of the Hash Codes searched are read.
+     */
+    private static ByteBuffer map(File indexFile) {
+        try (FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException e) {
+            throw error("Cannot read the pack index %s: %s", indexFile.getName(), e.getMessage());
+        }
+    }
+
+    /** Return the directory that saves the pack files and their index files
+     *  of the repository of GITLETDIR.
+     */
+    static File packDir(File gitletDir) {
+        return join(gitletDir, "pack");
+    }
+
+    /** Return all the packs under the pack directory DIR, which may be of another repository. */
+    static List<Pack> loadAll(File dir) {
+        List<Pack> packs = new ArrayList<>();
+        List<String> files = plainFilenamesIn(dir);
+        if (files != null) {
+            for (String file : files) {
+                if (file.endsWith(INDEX_EXT)) {
+                    packs.add(new Pack(join(dir, file)));
+                }
+            }
+        }
+        return packs;
+    }
+
+    /** Return if the pack has the blob. */
+    boolean contains(ObjectId hashCode) {
+        return find(hashCode) >= 0;
+    }
+
+    /** Return a stream of the contents of a blob in the pack. */
+    InputStream open(ObjectId hashCode) throws IOException {
+        int i = find(hashCode);
+        if (i < 0) {
+            throw error("The blob %s is NOT in the pack!", hashCode);
+        }
+        long offset = index.getLong(offsetPosition(i));
+        if (readType(offset) == FULL) { // stream it, only a delta needs its base in memory.
+            return new InflaterInputStream(new ChannelInputStream(getChannel(), offset + 1));
+        }
+        return new ByteArrayInputStream(read(offset, 0));
+    }
+
+    /** Close the pack file. */
+    void close() {
+        try {
+            if (channel != null) {
+                channel.close();
+                channel = null;
+            }
+        } catch (IOException e) {
+            throw error("Cannot close the pack %s: %s", packFile.getName(), e.getMessage());
+        }
+    }
+
+    /** Return the pack file. */
+    File getFile() {
+        return packFile;
+    }
+
+    /** Close and delete the pack file and its index file. */
+    void delete() {
+        close();
+        String name = packFile.getName();
+        join(packFile.getParentFile(),
+                name.substring(0, name.length() - PACK_EXT.length()) + INDEX_EXT).delete();
+        packFile.delete();
+    }
+
+    /** Return the contents of the entry at OFFSET, applying the deltas to their bases. */
+    private byte[] read(long offset, int depth) throws IOException {
+        if (depth > MAX_DEPTH) {
+            throw error("The delta chain in the pack %s is too long!", packFile.getName());
+        }
+        if (readType(offset) == FULL) {
+            try (InputStream in = new InflaterInputStream(
+                    new ChannelInputStream(getChannel(), offset + 1))) {
+                return in.readAllBytes();
+            }
+        }
+        ByteBuffer baseOffset = ByteBuffer.allocate(Long.BYTES);
+        getChannel().read(baseOffset, offset + 1);
+        byte[] base = read(baseOffset.getLong(0), depth + 1);
+        try (InputStream in = new InflaterInputStream(
+                new ChannelInputStream(getChannel(), offset + 1 + Long.BYTES))) {
+            return Delta.apply(base, in.readAllBytes());
+        }
+    }
+
+    /** Return the type of the entry at OFFSET. */
+    private int readType(long offset) throws IOException {
+        ByteBuffer type = ByteBuffer.allocate(1);
+        getChannel().read(type, offset);
+        return type.get(0);
+    }
+
+    /** Return the channel of the pack file, open it when first used.
+     *  The channel is only read at absolute positions, so it is shared by all the threads.
+     */
+    private synchronized FileChannel getChannel() throws IOException {
+        if (channel == null) {
+            channel = FileChannel.open(packFile.toPath(), StandardOpenOption.READ);
+        }
+        return channel;
+    }
+
+    /** Return the index of a blob in the sorted Hash Codes, or -1 if it is not in the pack.
+     *  Only the Hash Codes starting with the same byte are binary searched.
+     */
+    private int find(ObjectId hashCode) {
+        byte[] hash = hashCode.toBytes();
+        int first = hash[0] & 0xff;
+        int low = first == 0 ? 0 : fanout(first - 1);
+        int high = fanout(first) - 1;
+        byte[] other = new byte[ObjectId.LENGTH];
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            index.get(hashPosition(mid), other);
+            int cmp = Arrays.compareUnsigned(other, hash);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /** Return the entry I of the fanout table. */
+    private int fanout(int i) {
+        return index.getInt(INDEX_HEADER + i * Integer.BYTES);
+    }
+
+    /** Return the position of the Hash Code I in the index file. */
+    private static int hashPosition(int i) {
+        return INDEX_HEADER + FANOUT * Integer.BYTES + i * ObjectId.LENGTH;
+    }
+
+    /** Return the position of the offset I in the index file. */
+    private int offsetPosition(int i) {
+        return hashPosition(count) + i * Long.BYTES;
+    }
+
+    /** Writer is a support class which writes a new pack file and its index file. */
+    static class Writer {
+
+        /** The directory of the pack file. */
+        private final File dir;
+
+        /** The temp file of the pack file. */
+        private final File temp;
+
+        /** The stream to the temp file, which counts the bytes and hashes them. */
+        private final CountingOutputStream out;
+
+        /** The digest of the pack file, which names the pack. */
+        private final MessageDigest digest = sha1Digest();
+
+        /** The offsets of the entries. Key: Hash Code; Value: offset. */
+        private final TreeMap<ObjectId, Long> offsets = new TreeMap<>();
+
+        /** Start a new pack file under the pack directory DIR. */
+        Writer(File dir) {
+            this.dir = dir;
+            try {
+                dir.mkdir();
+                temp = File.createTempFile(Blobs.TEMP_PREFIX, PACK_EXT, dir);
+                out = new CountingOutputStream(new DigestOutputStream(
+                        new BufferedOutputStream(Files.newOutputStream(temp.toPath()),
+                                BUFFER_SIZE), digest));
+                out.write(PACK_MAGIC);
+                new DataOutputStream(out).writeInt(VERSION);
+            } catch (IOException e) {
+                throw error("Cannot write the pack: %s", e.getMessage());
+            }
+        }
+
+        /** Return the offset of the entry of a blob, or -1 if it has not been added. */
+        long getOffset(ObjectId hashCode) {
+            return offsets.getOrDefault(hashCode, -1L);
+        }
+
+        /** Add the full contents of a blob by streaming, and return the offset of its entry. */
+        long addFull(ObjectId hashCode, InputStream contents) {
+            long offset = out.count;
+            try {
+                out.write(FULL);
+                deflate(contents);
+            } catch (IOException e) {
+                throw error("Cannot write the pack: %s", e.getMessage());
+            }
+            offsets.put(hashCode, offset);
+            return offset;
+        }
+
+        /** Add a blob as a delta against the entry at BASEOFFSET,
+         *  and return the offset of its entry.
+         */
+        long addDelta(ObjectId hashCode, long baseOffset, byte[] delta) {
+            long offset = out.count;
+            try {
+                out.write(DELTA);
+                new DataOutputStream(out).writeLong(baseOffset);
+                deflate(new ByteArrayInputStream(delta));
+            } catch (IOException e) {
+                throw error("Cannot write the pack: %s", e.getMessage());
+            }
+            offsets.put(hashCode, offset);
+            return offset;
+        }
+
+        /** Write the deflated CONTENTS, without closing the pack file. */
+        private void deflate(InputStream contents) throws IOException {
+            Deflater deflater = new Deflater();
+            DeflaterOutputStream deflated = new DeflaterOutputStream(out, deflater, BUFFER_SIZE);
+            contents.transferTo(deflated);
+            deflated.finish();
+            deflater.end();
+        }
+
+        /** Write the index file, then rename both files to the name of the pack atomically,
+         *  the pack file first, so a pack is only found when it is complete.
+         *  A pack is named by its digest, so if the same pack already exists, e.g. the blobs
+         *  are packed again without changes, it is kept and the new files are dropped.
+         *  Return the pack file.
+         */
+        File finish() {
+            try {
+                out.close();
+                String name = "pack-" + toHex(digest.digest());
+                File packFile = join(dir, name + PACK_EXT);
+                File indexFile = join(dir, name + INDEX_EXT);
+                if (packFile.isFile() && indexFile.isFile()) {
+                    temp.delete();
+                    return packFile;
+                }
+                File indexTemp = File.createTempFile(Blobs.TEMP_PREFIX, INDEX_EXT, dir);
+                try (DataOutputStream index = new DataOutputStream(new BufferedOutputStream(
+                        Files.newOutputStream(indexTemp.toPath()), BUFFER_SIZE))) {
+                    index.write(INDEX_MAGIC);
+                    index.writeInt(VERSION);
+                    int[] fanout = new int[FANOUT];
+                    for (ObjectId hashCode : offsets.keySet()) {
+                        fanout[hashCode.getBits(0) >>> Byte.SIZE]++;
+                    }
+                    int total = 0;
+                    for (int n : fanout) {
+                        total += n;
+                        index.writeInt(total);
+                    }
+                    for (ObjectId hashCode : offsets.keySet()) {
+                        index.write(hashCode.toBytes());
+                    }
+                    for (long offset : offsets.values()) {
+                        index.writeLong(offset);
+                    }
+                }
+                // the loose blobs are deleted after this, so the pack must be on the disk.
+                syncFile(temp);
+                syncFile(indexTemp);
+                Files.move(temp.toPath(), packFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                Files.move(indexTemp.toPath(), indexFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                syncDir(dir);
+                return packFile;
+            } catch (IOException e) {
+                throw error("Cannot write the pack: %s", e.getMessage());
+            }
+        }
+    }
+
+    /** CountingOutputStream is a support class which counts the bytes written. */
+    private static class CountingOutputStream extends FilterOutputStream {
+
+        /** The number of bytes written. */
+        private long count;
+
+        /** The constructor of a counting stream. */
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+    /** ChannelInputStream is a support class which reads a file channel from a position,
+     *  without changing the position of the channel, so many streams can share a channel.
+     */
+    private static class ChannelInputStream extends InputStream {
+
+        /** The channel to read. */
+        private final FileChannel channel;
+
+        /** The position of the next byte to read. */
+        private long position;
+
+        /** The constructor of a stream from POSITION of CHANNEL. */
+        ChannelInputStream(FileChannel channel, long position) {
+            this.channel = channel;
+            this.position = position;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = channel.read(ByteBuffer.wrap(b, off, len), position);
+            if (n > 0) {
+                position += n;
+            }
+            return n;
+        }
+    }
+}
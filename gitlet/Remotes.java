@@ -0,0 +1,86 @@
+package gitlet;
+
+import java.io.File;
+import java.util.TreeMap;
+
+import static gitlet.Utils.*;
+
+/**
+ * This class manages the remotes.
+ * The Field remotes is a TreeMap of the remotes.
+ * Key: name of the remote; Value: the path of the .gitlet directory of the remote,
+ * as it was given, with the separators of this system.
+ * The setting methods only change the Field in memory, flush() saves it to disk.
+ */
+public class Remotes {
+
+    /** The separator of the directories in the path of a remote, as it is given. */
+    private static final String PATH_SEPARATOR = "/";
+
+    /** The file that saves the encoded Field: Remotes. */
+    private final File remotesFile;
+
+    /** The work dir, which the relative paths of the remotes are from. */
+    private final File workDir;
+
+    /**
+     * A TreeMap of Remotes.
+     * Key: name of the remote; Value: the path of the .gitlet directory of the remote.
+     */
+    private final TreeMap<String, String> remotes;
+
+    /** Whether the Field remotes has changed since it was read. */
+    private boolean changed;
+
+    /** The Field remotes is generated by decoding the disk file of the repository
+     *  of WORKDIR and GITLETDIR, or generate a new one if not exist.
+     *  A Serialised file of an old repository is written again by ObjectCodec.
+     */
+    public Remotes(File workDir, File gitletDir) {
+        this.workDir = workDir;
+        this.remotesFile = join(Repository.objDir(gitletDir), "remotes");
+        if (remotesFile.exists()) {
+            this.remotes = ObjectCodec.readStringMap(remotesFile);
+            this.changed = !ObjectCodec.isEncoded(remotesFile);
+        } else {
+            this.remotes = new TreeMap<>();
+        }
+    }
+
+    /** Return if a remote name is in remotes. */
+    public boolean hasRemote(String remoteName) {
+        return remotes.containsKey(remoteName);
+    }
+
+    /** Return the .gitlet directory of a remote, a relative path is from the work dir.
+     *  May return null if there is no such remote.
+     */
+    public File getRemoteDir(String remoteName) {
+        String path = remotes.get(remoteName);
+        if (path == null) {
+            return null;
+        }
+        File dir = new File(path);
+        return dir.isAbsolute() ? dir : join(workDir, path);
+    }
+
+    /** Add a remote with the PATH of its .gitlet directory, whose separators are "/". */
+    public void addRemote(String remoteName, String path) {
+        remotes.put(remoteName, path.replace(PATH_SEPARATOR, File.separator));
+        changed = true;
+    }
+
+    /** Rm a remote. */
+    public void removeRemote(String remoteName) {
+        remotes.remove(remoteName);
+        changed = true;
+    }
+
+    /** Encode the changed Field remotes and write it by the JOURNAL. */
+    public void flush(Journal journal) {
+        if (changed) {
+            journal.write(remotesFile, ObjectCodec.encodeStringMap(remotes));
+            changed = false;
+        }
+    }
+}
@@ -1,10 +1,20 @@
 package gitlet;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 import static gitlet.Utils.*;
 import static gitlet.Commit.Cmt;
+import static gitlet.CommandException.NotFoundException;
+import static gitlet.CommandException.RefusedException;
+import static gitlet.CommandException.UsageException;
 
 
 
@@ -15,96 +25,348 @@ import static gitlet.Commit.Cmt;
  */
 public class Repository {
 
-    /** The current working directory. */
+    /** The current working directory, which is the work dir of the commands of Main. */
     public static final File CWD =  new File(System.getProperty("user.dir"));
     // join("/Users/hf/JavaProjects/CS61B/CS61B/proj2/myTest");
 
+    /** The work dir of this repository. */
+    private final File workDir;
+
     /** The .gitlet directory. */
-    public static final File GITLET_DIR = join(CWD, ".gitlet");
+    private final File gitletDir;
 
-    /** The directory that saves the Serialised Fields of this class. */
-    public static final File OBJ_DIR = join(GITLET_DIR, "obj");
+    /** The Instance of Class Tree which manages the tree objects and caches them. */
+    private final Tree trees;
 
-    /** The Instance of Class Blobs which manages the blobs. */
+    /** The Instance of Class Blobs which manages the blobs, loaded by getBlobs(). */
     private Blobs blobs;
 
-    /** The Instance of Class Branches which manages the branches. */
+    /** The Instance of Class Branches which manages the branches, loaded by getBranches(). */
     private Branches branches;
 
-    /** The instance of Class Commit which manages the commits. */
+    /** The instance of Class Commit which manages the commits, loaded by getCommits(). */
     private Commit commits;
 
-    /** The instance of Class Stage which manages the stage. */
+    /** The instance of Class Stage which manages the stage, loaded by getStage(). */
     private Stage stage;
 
+    /** The instance of Class Index which caches the Hash Codes of the work dir,
+     *  loaded by getIndex().
+     */
+    private Index index;
+
+    /** The instance of Class CommitGraph which walks the history, loaded by getGraph(). */
+    private CommitGraph graph;
+
+    /** The instance of Class ChangedPaths which filters the commits by path,
+     *  loaded by getChangedPaths().
+     */
+    private ChangedPaths changedPaths;
+
+    /** The Instance of Class Remotes which manages the remotes, loaded by getRemotes(). */
+    private Remotes remotes;
+
+    /** The Repository of the work dir WORKDIR, use init() or fromFile(). */
+    private Repository(File workDir) {
+        this(workDir, gitletDir(workDir));
+    }
+
+    /** The Repository of the .gitlet directory GITLETDIR, whose work dir is WORKDIR. */
+    private Repository(File workDir, File gitletDir) {
+        this.workDir = workDir;
+        this.gitletDir = gitletDir;
+        this.trees = new Tree(gitletDir);
+    }
+
+    /** Return the .gitlet directory of the work dir WORKDIR. */
+    static File gitletDir(File workDir) {
+        return join(workDir, ".gitlet");
+    }
+
+    /** Return the directory that saves the encoded Fields of the repository of GITLETDIR. */
+    static File objDir(File gitletDir) {
+        return join(gitletDir, "obj");
+    }
+
     /**
-     * Return a Repository instance if the objects were saved in the disk.
+     * Return a Repository instance of the work dir WORKDIR if the objects were saved in the disk.
+     * The Fields are NOT read here, every Field is decoded
+     * the first time a command touches it.
+     */
+    public static Repository fromFile(File workDir) {
+        if (!gitletDir(workDir).exists()) {
+            throw new NotFoundException("Not in an initialized Gitlet directory.");
+        }
+        return open(workDir, gitletDir(workDir));
+    }
+
+    /** Return the Repository of the .gitlet directory GITLETDIR, whose work dir is WORKDIR,
+     *  after the change left by a killed command is recovered, and an old repository
+     *  is migrated.
      */
-    public static Repository fromFile() {
-        if (!GITLET_DIR.exists()) {
-            exitWithMsg("Not in an initialized Gitlet directory.");
+    private static Repository open(File workDir, File gitletDir) {
+        new Journal(gitletDir).recover();
+        if (!ObjectCodec.formatFile(gitletDir).exists()) {
+            migrate(new Repository(workDir, gitletDir));
         }
-        return initField();
+        return new Repository(workDir, gitletDir);
     }
 
     /**
-     * Creates a new Gitlet version-control system in the current directory.
+     * Encode every Serialised file of an old repository by ObjectCodec, once.
+     * The commits of a very old repository are split into commit objects first, then the
+     * commit and tree objects are encoded one by one, then the Fields are read and flushed,
+     * which writes the Serialised ones again. The format file is written last, so a migration
+     * which is interrupted is finished by the next command.
+     */
+    private static void migrate(Repository repo) {
+        repo.getCommits().encodeObjects();
+        repo.trees.encodeObjects();
+        repo.getBranches();
+        repo.getStage();
+        repo.getIndex();
+        repo.getRemotes();
+        repo.flush();
+        writeAtomic(ObjectCodec.formatFile(repo.gitletDir), String.valueOf(ObjectCodec.VERSION));
+    }
+
+    /**
+     * Creates a new Gitlet version-control system in the work dir WORKDIR.
      * This method will automatically generate an init commit and a branch called master.
      * This method will save the commit and branch to the disk.
-     * Call Method fromFile() to get the Gitlet Instance.
+     * Return the new Repository, whose Fields are saved by flush().
      */
-    public static void init() {
-        if (GITLET_DIR.exists()) { // if Gitlet dir exist, do NOT overwrite it.
-            exitWithMsg("A Gitlet version-control system already exists "
+    public static Repository init(File workDir) {
+        Repository repo = new Repository(workDir);
+        if (repo.gitletDir.exists()) { // if Gitlet dir exist, do NOT overwrite it.
+            throw new RefusedException("A Gitlet version-control system already exists "
                     + "in the current directory.");
         }
 
         // Create the folders.
-        if (!GITLET_DIR.mkdir() || !OBJ_DIR.mkdir()) {
+        if (!repo.gitletDir.mkdir() || !objDir(repo.gitletDir).mkdir()) {
             throw error("Error when create folders");
         }
+        writeAtomic(ObjectCodec.formatFile(repo.gitletDir), String.valueOf(ObjectCodec.VERSION));
+
+        // Generate all the Fields, so they are saved to disk.
+        repo.getBlobs();
+        repo.getCommits();
+        repo.getBranches();
+        repo.getStage();
+        return repo;
+    }
+
+    /** Return the Field blobs, read it from disk when first used. */
+    private Blobs getBlobs() {
+        if (blobs == null) {
+            blobs = load(() -> new Blobs(workDir, gitletDir));
+        }
+        return blobs;
+    }
+
+    /** Return the Field commits, read it from disk when first used. */
+    private Commit getCommits() {
+        if (commits == null) {
+            commits = load(() -> new Commit(gitletDir, trees));
+        }
+        return commits;
+    }
+
+    /** Return the Field branches, read it from disk when first used. */
+    private Branches getBranches() {
+        if (branches == null) {
+            branches = load(() -> new Branches(gitletDir));
+        }
+        return branches;
+    }
+
+    /** Return the Field stage, read it from disk when first used. */
+    private Stage getStage() {
+        if (stage == null) {
+            stage = load(() -> new Stage(gitletDir));
+        }
+        return stage;
+    }
+
+    /** Return the Field index, read it from disk when first used. */
+    private Index getIndex() {
+        if (index == null) {
+            index = load(() -> new Index(workDir, gitletDir));
+        }
+        return index;
+    }
+
+    /** Return the Field graph, read it from disk when first used. */
+    private CommitGraph getGraph() {
+        if (graph == null) {
+            graph = load(() -> new CommitGraph(gitletDir, getCommits()));
+        }
+        return graph;
+    }
+
+    /** Return the Field changedPaths, read it from disk when first used. */
+    private ChangedPaths getChangedPaths() {
+        if (changedPaths == null) {
+            changedPaths = load(() -> new ChangedPaths(gitletDir, getGraph(), getCommits(), trees));
+        }
+        return changedPaths;
+    }
+
+    /** Return the Field remotes, read it from disk when first used. */
+    private Remotes getRemotes() {
+        if (remotes == null) {
+            remotes = load(() -> new Remotes(workDir, gitletDir));
+        }
+        return remotes;
+    }
+
+    /** Save the changes of every Field which has been read to disk, each file at most once.
+     *  All the files are replaced by one Journal, so they are either all old or all new
+     *  after a crash.
+     */
+    public void flush() {
+        if (graph != null) { // caches of the commit objects, appended out of the journal.
+            graph.flush();
+        }
+        if (changedPaths != null) {
+            changedPaths.flush();
+        }
+        Journal journal = new Journal(gitletDir);
+        if (stage != null) {
+            stage.flush(journal);
+        }
+        if (index != null) {
+            index.flush(journal);
+        }
+        if (branches != null) {
+            branches.flush(journal);
+        }
+        if (remotes != null) {
+            remotes.flush(journal);
+        }
+        journal.commit();
+    }
 
-        initField();
+    /** Close the files which are kept open and drop the cached trees,
+     *  the changes which have not been flushed are lost.
+     */
+    public void close() {
+        if (blobs != null) {
+            blobs.close();
+        }
+        trees.clear();
     }
 
-    /** Read the Fields from disk or generate new ones. */
-    private static Repository initField() {
-        Repository repo = new Repository();
+    /** Read a Field from disk or generate a new one. */
+    private static <T> T load(Supplier<T> loader) {
         try {
-            repo.blobs = new Blobs();
-            repo.commits = new Commit();
-            repo.branches = new Branches();
-            repo.stage = new Stage();
-            return repo;
+            return loader.get();
         } catch (IllegalArgumentException  e) {
             throw error(e.getMessage());
         }
     }
 
-    /** Add a file which exists in the CWD to the stage. */
-    public void add(String fileName) {
-        File file = join(CWD, fileName);
-        if (!file.exists() || !file.isFile()) {
-            exitWithMsg("File does not exist.");
+    /** Add the files which exist in the work dir to the stage.
+     *  A directory adds all the files under it, except the ones of other repositories.
+     *  The files are hashed and written as blobs concurrently by the tasks of a fork-join pool,
+     *  then the stage is saved once.
+     */
+    public void add(String... paths) {
+        TreeSet<String> fileNames = new TreeSet<>();
+        for (String path : paths) {
+            String fileName = toFileName(workDir, path);
+            if (fileName == null || !join(workDir, fileName).exists()) {
+                throw new NotFoundException("File does not exist.");
+            }
+            File file = join(workDir, fileName);
+            if (file.isDirectory()) {
+                for (String child : workFilenamesIn(file)) {
+                    fileNames.add(fileName.isEmpty() ? child : fileName + "/" + child);
+                }
+            } else {
+                fileNames.add(fileName);
+            }
         }
 
-        if (stage.removedStageHas(fileName)) {
-            stage.removeFromRemovedStage(fileName);
-        }
+        Map<String, ObjectId> hashCodes = addBlobs(fileNames);
+
+        Cmt head = getCommits().getCommit(getBranches().getHead());
+        for (Map.Entry<String, ObjectId> entry : hashCodes.entrySet()) {
+            String fileName = entry.getKey();
+            ObjectId hashCode = entry.getValue();
+            getIndex().setHash(fileName, hashCode);
 
-        byte[] fileContent = readContents(file);
-        String hashCode = sha1(fileContent);
+            if (getStage().removedStageHas(fileName)) {
+                getStage().removeFromRemovedStage(fileName);
+            }
+            if (hashCode.equals(getCommits().getHashOfFile(head, fileName))) {
+                continue;
+            }
+            getStage().setStage(fileName, hashCode);
+        }
+    }
 
-        Cmt head = commits.getCommit(branches.getHead());
-        if (Commit.commitHasFile(head, fileName)
-                && Commit.getHashOfFile(head, fileName).equals(hashCode)) {
+    /** Delete a tracked file in the work dir WORKDIR, as well as its parent dirs if they
+     *  are empty. Refuse to delete anything which is not under WORKDIR.
+     */
+    static void deleteWorkFile(File workDir, String fileName) {
+        File file = join(workDir, fileName);
+        if (!gitletDir(workDir).isDirectory() || toFileName(workDir, fileName) == null) {
+            throw new IllegalArgumentException("not .gitlet working directory");
+        }
+        if (file.isDirectory()) {
             return;
         }
+        file.delete();
+        for (File dir = file.getParentFile(); !dir.equals(workDir) && dir.delete();) {
+            dir = dir.getParentFile();
+        }
+    }
+
+    /** Return the name of the file at PATH relative to the work dir WORKDIR, separated by '/',
+     *  or null if PATH is outside WORKDIR or in the .gitlet directory.
+     */
+    private static String toFileName(File workDir, String path) {
+        Path cwd = workDir.toPath().toAbsolutePath().normalize();
+        Path file = cwd.resolve(path).normalize();
+        if (!file.startsWith(cwd)
+                || file.startsWith(gitletDir(workDir).toPath().toAbsolutePath().normalize())) {
+            return null;
+        }
+        return cwd.relativize(file).toString().replace(File.separatorChar, '/');
+    }
+
+    /** Write the blobs of the files, and return their Hash Codes in order.
+     *  Enough files are written concurrently by a task per file in a pool of
+     *  Checkout.THREADS_PROPERTY threads, fewer are written in this thread.
+     *  If some writes fail, the error of the first failed file in order is thrown.
+     */
+    private Map<String, ObjectId> addBlobs(Collection<String> fileNames) {
+        Blobs blobsToWrite = getBlobs();
+        TreeMap<String, ObjectId> hashCodes = new TreeMap<>();
+        int threads = Integer.getInteger(Checkout.THREADS_PROPERTY,
+                Runtime.getRuntime().availableProcessors());
+        if (threads <= 1 || fileNames.size() < Checkout.PARALLEL_THRESHOLD) {
+            for (String fileName : fileNames) {
+                hashCodes.put(fileName, blobsToWrite.addBlob(join(workDir, fileName)));
+            }
+            return hashCodes;
+        }
 
-        blobs.addBlob(hashCode, fileContent);
-        blobs.saveBlobs();
-        stage.setStage(fileName, hashCode);
-        stage.saveStage();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            TreeMap<String, ForkJoinTask<ObjectId>> tasks = new TreeMap<>();
+            for (String fileName : fileNames) {
+                tasks.put(fileName, pool.submit(() -> blobsToWrite.addBlob(join(workDir, fileName))));
+            }
+            for (Map.Entry<String, ForkJoinTask<ObjectId>> task : tasks.entrySet()) {
+                hashCodes.put(task.getKey(), task.getValue().join());
+            }
+            return hashCodes;
+        } finally {
+            pool.shutdown();
+        }
     }
 
     /** Commit to the repository.
@@ -114,56 +376,61 @@ public class Repository {
      *  3. Then init the stage.
      *
      *  @param message the message of commit, cannot be null.
+     *  @return the Hash Code of the new commit.
      */
-    public void commit(String message) {
+    public ObjectId commit(String message) {
         if (message.length() == 0) { // error when has NOT a commit message
-            exitWithMsg("Please enter a commit message.");
+            throw new UsageException("Please enter a commit message.");
         }
 
-        TreeMap<String, String> tree = buildCommitTree();
+        return commit(message, null);
+    }
 
-        if (tree.isEmpty()) { // quit if NOT changed
-            exitWithMsg("No changes added to the commit.");
-        }
+    /** A helper method for Commit and Merge to commit,
+     *  SECONDPARENT is the given branch of a merge, or null.
+     */
+    private ObjectId commit(String message, ObjectId secondParent) {
+        ObjectId treeHash = buildCommitTree();
 
-        commit(message, tree, branches.getHead());
+        if (treeHash.equals(Tree.EMPTY_HASH)) { // quit if NOT changed
+            throw new RefusedException("No changes added to the commit.");
+        }
 
+        return commit(message, treeHash, getBranches().getHead(), secondParent);
     }
 
     /** A helper method for Commit to commit. */
-    private void commit(String message, TreeMap<String, String> tree, String parent) {
-        String newHashCode = commits.newCommit(message, tree, parent);
-        stage.initStage();
-        branches.setCurrentHead(newHashCode);
+    private ObjectId commit(String message, ObjectId treeHash,
+                            ObjectId parent, ObjectId secondParent) {
+        ObjectId newHashCode = getCommits().newCommit(message, treeHash, parent, secondParent);
+        getStage().initStage();
+        getBranches().setCurrentHead(newHashCode);
+        return newHashCode;
     }
 
-    /** Return a commit tree. */
-    private TreeMap<String, String> buildCommitTree() {
-        TreeMap<String, String> tree = new TreeMap<>();
-
-        Cmt currCommit = commits.getCommit(branches.getHead());
-        String[] commitFiles = Commit.getFileNames(currCommit);
-        if (commitFiles != null) {
-            for (String fileName: commitFiles) { // deal with the currCommit
-                tree.put(fileName, Commit.getHashOfFile(currCommit, fileName));
-            }
-        }
+    /** Return the Hash Code of the root tree of a new commit.
+     *  Only the stage and the removed stage are applied to the tree of the current commit,
+     *  the unchanged trees are shared with it.
+     */
+    private ObjectId buildCommitTree() {
+        TreeMap<String, ObjectId> changes = new TreeMap<>();
 
-        String[] stageFiles = stage.getFilesFromStage();
+        String[] stageFiles = getStage().getFilesFromStage();
         if (stageFiles != null) {
             for (String fileName: stageFiles) { // deal with the stage
-                tree.put(fileName, stage.getHashForFileInStage(fileName));
+                changes.put(fileName, getStage().getHashForFileInStage(fileName));
             }
         }
 
-        String[] removedFiles = stage.getFilesFromRemovedStage();
+        String[] removedFiles = getStage().getFilesFromRemovedStage();
         if (removedFiles != null) {
             for (String fileName : removedFiles) {
-                tree.remove(fileName);
+                changes.put(fileName, null);
             }
         }
 
-        return tree;
+        Cmt currCommit = getCommits().getCommit(getBranches().getHead());
+        return trees.update(Commit.getTreeHash(currCommit), changes);
     }
 
     /** Un-track a file.
@@ -172,115 +439,133 @@ public class Repository {
      */
     public void rm(String fileName) {
 
-        Cmt currCommit = commits.getCommit(branches.getHead());
-        boolean inLastCommit = Commit.commitHasFile(currCommit, fileName);
-        boolean inStage = stage.stageHas(fileName);
+        Cmt currCommit = getCommits().getCommit(getBranches().getHead());
+        boolean inLastCommit = getCommits().commitHasFile(currCommit, fileName);
+        boolean inStage = getStage().stageHas(fileName);
 
         if (!inLastCommit && !inStage) {
-            exitWithMsg("No reason to remove the file.");
+            throw new RefusedException("No reason to remove the file.");
         }
 
         if (inLastCommit) {
-            stage.setRemovedStage(fileName);
-            restrictedDelete(join(CWD, fileName));
+            getStage().setRemovedStage(fileName);
+            deleteWorkFile(workDir, fileName);
+            getIndex().remove(fileName);
         }
 
         if (inStage) {
-            String hashCode = stage.removeFromStage(fileName);
-            blobs.removeBlob(hashCode);
+            ObjectId hashCode = getStage().removeFromStage(fileName);
+            getBlobs().removeBlob(hashCode);
         }
     }
 
-    /** Print all logs of the current commit and all parents. */
-    public void log() {
-        log(branches.getHead());
+    /** Pass the current commit and its first parents to ACTION,
+     *  skipping the first SKIP commits and passing at most LIMIT commits.
+     *  The history is walked iteratively and stops once LIMIT commits are passed.
+     */
+    public void log(int skip, int limit, Consumer<CommitInfo> action) {
+        Window window = new Window(skip, limit, action);
+        ObjectId hashCode = getBranches().getHead();
+        while (hashCode != null && !window.isDone()) {
+            Cmt commit = getCommits().readCommit(hashCode);
+            window.offer(commit);
+            hashCode = Commit.getParent(commit);
+        }
     }
 
-    /** Help method for recursive call. */
-    private void log(String hashCode) {
-        Cmt commit = commits.getCommit(hashCode);
-        printHelper(commit);
-
-        String parent = Commit.getParent(commit);
-        if (parent == null) {
+    /** Pass the current commit and its first parents which changed a PATH, a file or
+     *  a directory, to ACTION. The commits are walked in the commit graph, and only the
+     *  ones whose changed path filter may have the PATH are read and compared.
+     */
+    public void log(String path, int skip, int limit, Consumer<CommitInfo> action) {
+        String fileName = toFileName(workDir, path);
+        if (fileName == null) {
+            throw new NotFoundException("File does not exist.");
+        }
+        if (fileName.isEmpty()) {
+            log(skip, limit, action);
             return;
         }
-        log(parent);
-    }
 
-    /** Print all logs of all commits. */
-    public void globalLog() {
-        for (Cmt commit : commits.getAllCommits()) {
-            printHelper(commit);
+        Window window = new Window(skip, limit, action);
+        CommitGraph commitGraph = getGraph();
+        for (int n = commitGraph.numberOf(getBranches().getHead());
+             n != CommitGraph.NONE && !window.isDone(); n = commitGraph.getFirstParent(n)) {
+            if (!getChangedPaths().mayHaveChanged(n, fileName)) {
+                continue;
+            }
+            Cmt commit = getCommits().readCommit(commitGraph.getHash(n));
+            int parent = commitGraph.getFirstParent(n);
+            ObjectId parentTree = parent == CommitGraph.NONE ? Tree.EMPTY_HASH
+                    : Commit.getTreeHash(getCommits().readCommit(commitGraph.getHash(parent)));
+            if (!Objects.equals(trees.getHashOfPath(Commit.getTreeHash(commit), fileName),
+                    trees.getHashOfPath(parentTree, fileName))) {
+                window.offer(commit);
+            }
         }
     }
 
-    /** Print the Fields of a commit. */
-    private void printHelper(Cmt commit) {
-        System.out.println("===");
-        System.out.println("commit " + Commit.getHash(commit));
-        System.out.println("Date: " + Commit.getDateTime(commit));
-        System.out.println(Commit.getMessage(commit));
-        System.out.println(" ");
+    /** Pass all commits in the order of their Hash Codes to ACTION,
+     *  skipping the first SKIP commits and passing at most LIMIT commits.
+     *  The commits are read one by one and not kept in memory.
+     */
+    public void globalLog(int skip, int limit, Consumer<CommitInfo> action) {
+        Window window = new Window(skip, limit, action);
+        getCommits().forEachHashCode(hashCode -> {
+            window.offer(getCommits().readCommit(hashCode));
+            return !window.isDone();
+        });
     }
 
-    /** Print the Hash Value of a commit by the message. */
-    public void find(String message) {
-        Cmt[] cmts = commits.getCommit(true, message);
+    /** Return the Hash Values of the commits with the message, in order. */
+    public List<ObjectId> find(String message) {
+        return hashesOf(getCommits().getCommit(true, message));
+    }
 
-        if (cmts == null) {
-            exitWithMsg("Found no commit with that message.");
-        }
+    /** Return the Hash Values of the commits whose message has PATTERN,
+     *  or starts with it if PATTERN starts with "^", in order.
+     */
+    public List<ObjectId> grep(String pattern) {
+        return hashesOf(getCommits().grepCommits(pattern));
+    }
 
-        for (Cmt commit : cmts) {
-            System.out.println(Commit.getHash(commit));
+    /** A helper method for Method Find to list the Hash Values of the commits found. */
+    private static List<ObjectId> hashesOf(Cmt[] cmts) {
+        if (cmts == null) {
+            return List.of();
         }
+        return Arrays.stream(cmts).map(Commit::getHash).toList();
     }
 
-    /** Print Fields: Branches, Stage, Removed Stage.
+    /** Return Fields: Branches, Stage, Removed Stage.
      * As well as modified but not staged and untracked files.
      */
-    public void status() {
-
-        String[] branchNames = branches.getBranches();
-        String currBranch = branches.getCurrBranch();
-        for (int i = 0; i < branchNames.length; i++) {
-            if (branchNames[i].equals(currBranch)) {
-                branchNames[i] = "*" + branchNames[i];
-            }
-        }
-        statusPrintHelper("Branches", branchNames);
-
-        String[] stageFiles = stage.getFilesFromStage();
-        statusPrintHelper("Staged Files", stageFiles);
-
-        String[] removedStageFiles = stage.getFilesFromRemovedStage();
-        statusPrintHelper("Removed Files", removedStageFiles);
-
-        String[] modifiedFiles = getModifiedFiles();
-        statusPrintHelper("Modifications Not Staged For Commit", modifiedFiles);
-
-        String[] unTrackedFiles = getUnTrackedFiles();
-        statusPrintHelper("Untracked Files", unTrackedFiles);
+    public Status status() {
+        return new Status(getBranches().getCurrBranch(),
+                List.of(getBranches().getBranches()),
+                listOf(getStage().getFilesFromStage()),
+                listOf(getStage().getFilesFromRemovedStage()),
+                listOf(getModifiedFiles()),
+                listOf(getUnTrackedFiles()));
+    }
 
+    /** A helper method for Method Status to list an array which may be null. */
+    private static List<String> listOf(String[] arr) {
+        return arr == null ? List.of() : List.of(arr);
     }
 
     /** A helper method for Method Status to find out the un-tracked files. */
     private String[] getUnTrackedFiles() {
         ArrayList<String> res = new ArrayList<>();
 
-        List<String> cwdFiles = plainFilenamesIn(CWD);
-
-        if (cwdFiles == null) {
-            return null;
-        }
+        List<String> cwdFiles = workFilenamesIn(workDir);
 
-        Cmt currCommit = commits.getCommit(branches.getHead());
+        Cmt currCommit = getCommits().getCommit(getBranches().getHead());
 
         for (String fileName : cwdFiles) {
-            if ((!Commit.commitHasFile(currCommit, fileName)
-                    && !stage.stageHas(fileName))
-                    || stage.removedStageHas(fileName)) {
+            if ((!getCommits().commitHasFile(currCommit, fileName)
+                    && !getStage().stageHas(fileName))
+                    || getStage().removedStageHas(fileName)) {
                 res.add(fileName);
             }
         }
@@ -291,41 +576,43 @@ public class Repository {
         return res.toArray(new String[0]);
     }
 
-    /** A helper method for Method Status to find out the modified files. */
+    /** A helper method for Method Status to find out the modified files.
+     *  The Hash Codes of the files come from the stat cache.
+     */
     private String[] getModifiedFiles() {
         ArrayList<String> res = new ArrayList<>();
 
-        Cmt currCommit = commits.getCommit(branches.getHead());
-        String[] currFiles = Commit.getFileNames(currCommit);
+        Cmt currCommit = getCommits().getCommit(getBranches().getHead());
+        String[] currFiles = getCommits().getFileNames(currCommit);
         if (currFiles != null) {
             for (String fileName : currFiles) {
-                File cwdFile = join(CWD, fileName);
+                File cwdFile = join(workDir, fileName);
                 // Not staged for removal, but tracked in the current commit
                 // and deleted from the working directory.
-                if (!cwdFile.exists() && !stage.removedStageHas(fileName)) {
+                if (!cwdFile.exists() && !getStage().removedStageHas(fileName)) {
                     res.add(fileName + " (deleted)");
                     // Tracked in the current commit,
                     // changed in the working directory, but not staged;
                 } else if (cwdFile.exists()
-                        && !stage.stageHas(fileName)
-                        && !Commit.getHashOfFile(currCommit, fileName).equals(
-                        sha1(readContents(cwdFile)))) {
+                        && !getStage().stageHas(fileName)
+                        && !getCommits().getHashOfFile(currCommit, fileName).equals(
+                        getIndex().getHash(fileName))) {
                     res.add(fileName + " (modified)");
                 }
             }
         }
 
-        String[] stageFiles = stage.getFilesFromStage();
+        String[] stageFiles = getStage().getFilesFromStage();
         if (stageFiles != null) {
             for (String fileName : stageFiles) {
-                File cwdFile = join(CWD, fileName);
+                File cwdFile = join(workDir, fileName);
                 // Staged for addition, but deleted in the working directory;
                 if (!cwdFile.exists()) {
                     res.add(fileName + " (deleted)");
                     // Staged for addition,
                     // but with different contents than in the working directory;
-                } else if (!stage.getHashForFileInStage(fileName).equals(
-                        sha1(readContents(cwdFile)))) {
+                } else if (!getStage().getHashForFileInStage(fileName).equals(
+                        getIndex().getHash(fileName))) {
                     res.add(fileName + " (modified)");
                 }
             }
@@ -334,49 +621,116 @@ public class Repository {
         return res.toArray(new String[0]);
     }
 
-    /** A helper method for Method Status to deal with the format problem. */
-    private void statusPrintHelper(String title, String[] arr) {
-        System.out.println("=== " + title + " ===");
-        if (arr != null) {
-            for (String str : arr) {
-                System.out.println(str);
+    /**
+     * Pass the changes of every file from the commit FROM to the commit TO to ACTION,
+     * in order of the path. FROM and TO are branch names or commit ids, FROM is the
+     * current commit if it is null, and TO is the work dir if it is null.
+     * The files whose Hash Codes are the same are skipped without being read, so are the
+     * sub trees of 2 commits; the Hash Codes of the work dir come from the stat cache.
+     */
+    public void diff(String from, String to, Consumer<FileDiff> action) {
+        String message = to == null ? "A branch with that name does not exist."
+                : "At least one branch does not exist.";
+        Cmt oldCommit = from == null
+                ? getCommits().getCommit(getBranches().getHead()) : findCommit(from, message);
+        if (to != null) {
+            Cmt newCommit = findCommit(to, message);
+            trees.diff(Commit.getTreeHash(oldCommit), Commit.getTreeHash(newCommit),
+                    (path, oldHash, newHash) ->
+                            action.accept(diffFile(path, oldHash, newHash, blobSource(newHash))));
+            return;
+        }
+
+        Map<String, ObjectId> oldFiles = trees.getFiles(Commit.getTreeHash(oldCommit));
+        Map<String, ObjectId> workFiles = getWorkFiles();
+        TreeSet<String> paths = new TreeSet<>(oldFiles.keySet());
+        paths.addAll(workFiles.keySet());
+        for (String path : paths) {
+            ObjectId oldHash = oldFiles.get(path);
+            ObjectId newHash = workFiles.get(path);
+            if (!Objects.equals(oldHash, newHash)) {
+                Diff.Source newSource = newHash == null
+                        ? Diff.EMPTY : () -> Files.newInputStream(join(workDir, path).toPath());
+                action.accept(diffFile(path, oldHash, newHash, newSource));
+            }
+        }
+    }
+
+    /** A helper method for Method Diff to find the commit of a branch or a commit ID,
+     *  refuse the command with the MESSAGE if there is none.
+     */
+    private Cmt findCommit(String id, String message) {
+        if (getBranches().hasBranch(id)) {
+            return getCommits().getCommit(getBranches().getBranchPoint(id));
+        }
+        ObjectId commitId = getCommits().findCommitId(id);
+        if (commitId != null) {
+            return getCommits().getCommit(commitId);
+        }
+        throw new NotFoundException(message);
+    }
+
+    /** A helper method for Method Diff to find the files of the work dir which would be
+     *  committed: the files of the current commit and the stage, but not the removed stage,
+     *  which exist. Key: the file name; Value: its Hash Code.
+     */
+    private Map<String, ObjectId> getWorkFiles() {
+        Set<String> fileNames = new HashSet<>(
+                trees.getFiles(Commit.getTreeHash(getCommits().getCommit(getBranches().getHead())))
+                        .keySet());
+        fileNames.addAll(listOf(getStage().getFilesFromStage()));
+        fileNames.removeAll(listOf(getStage().getFilesFromRemovedStage()));
+
+        Map<String, ObjectId> res = new HashMap<>();
+        for (String fileName : fileNames) {
+            if (join(workDir, fileName).isFile()) {
+                res.put(fileName, getIndex().getHash(fileName));
             }
         }
-        System.out.println();
+        return res;
     }
 
-    /** A helper method for map to the actual Checkout Method */
-    public void checkout(String[] args) {
-        final String split = "--";
-        if (args.length == 2) {
-            checkout(true, args[1]);
-        } else if (args.length == 3 && args[1].equals(split)) {
-            checkout(args[2]);
-        } else if (args.length == 4 && args[2].equals(split)) {
-            checkout(true, args[1], args[3]);
-        } else {
-            exitWithMsg("Incorrect operands.");
+    /** A helper method for Method Diff to diff the blob OLDHASH of a file with NEWSOURCE. */
+    private FileDiff diffFile(String path, ObjectId oldHash, ObjectId newHash,
+                              Diff.Source newSource) {
+        try {
+            return new FileDiff(path, oldHash, newHash,
+                    Diff.diff(blobSource(oldHash), newSource));
+        } catch (IOException e) {
+            throw error("Cannot diff the file %s: %s", path, e.getMessage());
         }
     }
 
+    /** A helper method for Method Diff to stream a blob, which may be null for no file. */
+    private Diff.Source blobSource(ObjectId hashCode) {
+        return hashCode == null ? Diff.EMPTY : () -> getBlobs().openBlob(hashCode);
+    }
+
     /** An Actual Checkout Method by a commit and a file.
      *  Take a FILE from THE commit to overwrite the version of the work dir.
      */
     public void checkout(boolean isCommit, String commitId, String fileName) {
-        if (!commits.hasCommit(commitId)) {
-            exitWithMsg("No commit with that id exists.");
+        ObjectId id = getCommits().findCommitId(commitId);
+        if (id == null) {
+            throw new NotFoundException("No commit with that id exists.");
         }
-        Cmt commit = commits.getCommit(commitId);
-        if (!Commit.commitHasFile(commit, fileName)) {
-            exitWithMsg("File does not exist in that commit.");
+        checkout(id, fileName);
+    }
+
+    /** A helper method for Checkout to take a FILE from THE commit ID. */
+    private void checkout(ObjectId id, String fileName) {
+        Cmt commit = getCommits().getCommit(id);
+        if (!getCommits().commitHasFile(commit, fileName)) {
+            throw new NotFoundException("File does not exist in that commit.");
         }
 
-        File cwdFile = join(CWD, fileName);
-        String commitHashCode = Commit.getHashOfFile(commit, fileName);
+        File cwdFile = join(workDir, fileName);
+        ObjectId commitHashCode = getCommits().getHashOfFile(commit, fileName);
 
-        if (!cwdFile.exists() || !commitHashCode.equals(sha1(readContents(cwdFile)))) {
-            byte[] content = blobs.getBlob(commitHashCode);
-            blobs.saveBlob(cwdFile, content);
+        if (!cwdFile.exists() || !commitHashCode.equals(getIndex().getHash(fileName))) {
+            cwdFile.getParentFile().mkdirs();
+            getBlobs().copyBlob(commitHashCode, cwdFile);
+            getIndex().setHash(fileName, commitHashCode);
         }
     }
 
@@ -384,43 +738,43 @@ public class Repository {
      *  Take the file from LAST commit to overwrite the version of the work dir.
      */
     public void checkout(String fileName) {
-        checkout(true, branches.getHead(), fileName);
+        checkout(getBranches().getHead(), fileName);
     }
 
     /** An Actual Checkout Method by a branch. */
     public void checkout(boolean isBranch, String branchName) {
-        if (!branches.hasBranch(branchName)) {
-            exitWithMsg("No such branch exists.");
+        if (!getBranches().hasBranch(branchName)) {
+            throw new NotFoundException("No such branch exists.");
         }
-        if (branches.getCurrBranch().equals(branchName)) {
-            exitWithMsg("No need to checkout the current branch.");
+        if (getBranches().getCurrBranch().equals(branchName)) {
+            throw new RefusedException("No need to checkout the current branch.");
         }
 
         // checkout the files in the last commit;
-        String branchPoint = branches.getBranchPoint(branchName);
-        reset(branchPoint, branches.getHead());
+        ObjectId branchPoint = getBranches().getBranchPoint(branchName);
+        reset(branchPoint, getBranches().getHead());
 
         // set the point
-        branches.setCurrBranch(branchName);
+        getBranches().setCurrBranch(branchName);
     }
 
     /** Add a new branch. */
     public void branch(String branchName) {
-        if (branches.hasBranch(branchName)) {
-            exitWithMsg("A branch with that name already exists.");
+        if (getBranches().hasBranch(branchName)) {
+            throw new RefusedException("A branch with that name already exists.");
         }
-        branches.setBranches(branchName, branches.getHead());
+        getBranches().setBranches(branchName, getBranches().getHead());
     }
 
     /** Rm a branch. */
     public void rmBranch(String branchName) {
-        if (!branches.hasBranch(branchName)) {
-            exitWithMsg("A branch with that name does not exist.");
+        if (!getBranches().hasBranch(branchName)) {
+            throw new NotFoundException("A branch with that name does not exist.");
         }
-        if (branches.getCurrBranch().equals(branchName)) {
-            exitWithMsg("Cannot remove the current branch.");
+        if (getBranches().getCurrBranch().equals(branchName)) {
+            throw new RefusedException("Cannot remove the current branch.");
         }
-        branches.removeBranch(branchName);
+        getBranches().removeBranch(branchName);
     }
 
     /**
@@ -429,8 +783,12 @@ public class Repository {
      * Also moves the current branch’s head to that commit node.
      */
     public void reset(String commitHashCode) {
-        reset(commitHashCode, branches.getHead());
-        branches.setCurrentHead(commitHashCode);
+        ObjectId id = getCommits().findCommitId(commitHashCode);
+        if (id == null) {
+            throw new NotFoundException("No commit with that id exists.");
+        }
+        reset(id, getBranches().getHead());
+        getBranches().setCurrentHead(id);
     }
 
     /**
@@ -438,43 +796,35 @@ public class Repository {
      * Removes tracked files that are not present in that commit.
      * Also moves the current branch’s head to that commit node.
      */
-    private void reset(String commitHashCode, String previousHashCode) {
-        if (!commits.hasCommit(commitHashCode)) {
-            exitWithMsg("No commit with that id exists.");
-        }
-
-        Cmt commit = commits.getCommit(commitHashCode);
+    private void reset(ObjectId commitHashCode, ObjectId previousHashCode) {
+        Cmt commit = getCommits().getCommit(commitHashCode);
 
         checkForUntrackedFiles(commit);
 
-        String[] files = Commit.getFileNames(commit);
-
-        if (files != null) {
-            for (String file : files) {
-                checkout(true, commitHashCode, file);
-            }
+        // plan the whole file set first, then write the blobs concurrently.
+        Checkout plan = new Checkout(workDir, getBlobs(), getIndex());
+        for (String file : getCommits().getFileNames(commit)) {
+            plan.write(file, getCommits().getHashOfFile(commit, file));
         }
 
         // delete the files in previous commit but not in given commit.
-        String[] lastFiles = Commit.getFileNames(commits.getCommit(previousHashCode));
-        if (lastFiles != null) {
-            for (String lastFile : lastFiles) {
-                if (!Commit.commitHasFile(commit, lastFile)) {
-                    restrictedDelete(join(CWD, lastFile));
-                }
+        for (String lastFile : getCommits().getFileNames(getCommits().getCommit(previousHashCode))) {
+            if (!getCommits().commitHasFile(commit, lastFile)) {
+                plan.delete(lastFile);
             }
         }
+        plan.run();
 
-        stage.initStage();
+        getStage().initStage();
     }
 
-    /** Find the untracked file but in given commit, throw an error and quit the program. */
+    /** Find the untracked file but in given commit, refuse the command if there is one. */
     private void checkForUntrackedFiles(Cmt commit) {
         String[] unTrackedFiles = getUnTrackedFiles();
         if (unTrackedFiles != null) {
             for (String unTrackedFile : unTrackedFiles) {
-                if (Commit.commitHasFile(commit, unTrackedFile)) {
-                    exitWithMsg("There is an untracked file in the way; "
+                if (getCommits().commitHasFile(commit, unTrackedFile)) {
+                    throw new RefusedException("There is an untracked file in the way; "
                             + "delete it, or add and commit it first.");
                 }
             }
@@ -484,83 +834,87 @@ public class Repository {
     /** Merges files from the given branch into the current branch.
      *  Mainly deal with the situation that will NOT do a commit.
      */
-    public void merge(String branchName) {
+    public MergeResult merge(String branchName) {
         checkForMerge(branchName);
 
-        // get split point
-        String givenPoint = branches.getBranchPoint(branchName);
-        String headPoint = branches.getHead();
-        String splitPoint = getSplitPoint(givenPoint, headPoint);
+        ObjectId givenPoint = getBranches().getBranchPoint(branchName);
+        ObjectId headPoint = getBranches().getHead();
 
-        // If the split point is the same commit as the given branch
-        if (splitPoint.equals(givenPoint)) {
-            exitWithMsg("Given branch is an ancestor of the current branch.");
+        // If the given branch is an ancestor, the split point is the given branch
+        if (getGraph().isAncestor(givenPoint, headPoint)) {
+            return MergeResult.UP_TO_DATE;
         }
 
-        // If the split point is the current branch
-        if (splitPoint.equals(headPoint)) {
+        // If the current branch is an ancestor, the split point is the current branch
+        if (getGraph().isAncestor(headPoint, givenPoint)) {
             checkout(true, branchName);
-            exitWithMsg("Current branch fast-forwarded.");
+            return MergeResult.FAST_FORWARDED;
         }
 
-        merge(givenPoint, headPoint, splitPoint, branchName);
+        return merge(givenPoint, headPoint, getSplitPoint(givenPoint, headPoint), branchName);
     }
 
     /** A helper method for Method Merge to do a commit. */
-    private void merge(String givenPoint, String headPoint, String splitPoint,
-                       String givenBranchName) {
+    private MergeResult merge(ObjectId givenPoint, ObjectId headPoint, ObjectId splitPoint,
+                              String givenBranchName) {
 
-        merge(givenPoint, headPoint, splitPoint);
+        boolean conflicted = merge(givenPoint, headPoint, splitPoint);
 
-        String message = "Merged " + givenBranchName + " into " + branches.getCurrBranch() + ".";
-        commit(message);
-        Commit.addParent(commits.getCommit(branches.getHead()), givenPoint);
-        commits.saveCommits();
+        String message = "Merged " + givenBranchName + " into "
+                + getBranches().getCurrBranch() + ".";
+        commit(message, givenPoint);
+        return conflicted ? MergeResult.CONFLICTED : MergeResult.MERGED;
     }
 
-    /** A helper method for Method Merge to do a commit. */
-    private void merge(String givenPoint, String headPoint, String splitPoint) {
-        Cmt givenCmt = commits.getCommit(givenPoint);
-        Cmt headCmt = commits.getCommit(headPoint);
-        Cmt splitCmt = commits.getCommit(splitPoint);
+    /** A helper method for Method Merge to merge the files into the work dir and the stage.
+     *  The merged files are added together at the end, so their blobs are written at once.
+     *  Return whether a file has a conflict.
+     */
+    private boolean merge(ObjectId givenPoint, ObjectId headPoint, ObjectId splitPoint) {
+        boolean conflicted = false;
+        List<String> filesToAdd = new ArrayList<>();
+        Cmt givenCmt = getCommits().getCommit(givenPoint);
+        Cmt headCmt = getCommits().getCommit(headPoint);
+        Cmt splitCmt = getCommits().getCommit(splitPoint);
 
-        String[] givenFiles = Commit.getFileNames(givenCmt);
-        String[] splitFiles = Commit.getFileNames(splitCmt);
+        String[] givenFiles = getCommits().getFileNames(givenCmt);
+        String[] splitFiles = getCommits().getFileNames(splitCmt);
 
         if (splitFiles != null) {
             for (String file : splitFiles) {
 
-                boolean isInGiven = Commit.commitHasFile(givenCmt, file);
-                boolean isInHead = Commit.commitHasFile(headCmt, file);
+                boolean isInGiven = getCommits().commitHasFile(givenCmt, file);
+                boolean isInHead = getCommits().commitHasFile(headCmt, file);
 
                 if (!isInHead) { // 1 & 2. file C&E - not in Both or not in Head, do nothing;
                     continue;
                 }
-                String splitVer = Commit.getHashOfFile(splitCmt, file);
-                String headVer = Commit.getHashOfFile(headCmt, file);
+                ObjectId splitVer = getCommits().getHashOfFile(splitCmt, file);
+                ObjectId headVer = getCommits().getHashOfFile(headCmt, file);
                 if (!isInGiven) {
                     if (splitVer.equals(headVer)) { // 3. file D only in Head, rm it;
                         rm(file);
                     } else { // 8. Conflict, file modified in HEAD & deleted in Given Branch.
-                        blobs.mergeSingleBlob(file, headVer);
-                        add(file);
+                        getBlobs().mergeSingleBlob(file, headVer);
+                        filesToAdd.add(file);
+                        conflicted = true;
                     }
                 } else {  // in Both compare the version;
-                    String givenVer = Commit.getHashOfFile(givenCmt, file);
+                    ObjectId givenVer = getCommits().getHashOfFile(givenCmt, file);
 
                     if (headVer.equals(givenVer)) {
                         continue; // same version, do nothing;
                     }
 
                     if (splitVer.equals(headVer)) { // 4. fileA; overwrite with given version.
-                        blobs.saveBlob(join(CWD, file), blobs.getBlob(givenVer));
-                        add(file);
+                        getBlobs().copyBlob(givenVer, join(workDir, file));
+                        filesToAdd.add(file);
                     } else if (splitVer.equals(givenVer)) {  //5. fileB; ow with given version.
-                        blobs.saveBlob(join(CWD, file), blobs.getBlob(headVer));
-                        add(file);
-                    } else { // conflict
-                        blobs.mergeBlobs(file, headVer, givenVer);
-                        add(file);
+                        getBlobs().copyBlob(headVer, join(workDir, file));
+                        filesToAdd.add(file);
+                    } else { // changed in both, merge the lines from the split version.
+                        conflicted |= getBlobs().mergeBlobs(file, splitVer, headVer, givenVer);
+                        filesToAdd.add(file);
                     }
                 }
             }
@@ -568,66 +922,222 @@ public class Repository {
 
         if (givenFiles != null) {
             for (String file : givenFiles) {
-                boolean isSplit = Commit.commitHasFile(splitCmt, file);
+                boolean isSplit = getCommits().commitHasFile(splitCmt, file);
                 if (isSplit) { // Skip the file in split.
                     continue;
                 }
-                boolean isHead = Commit.commitHasFile(headCmt, file);
-                String givenVer = Commit.getHashOfFile(givenCmt, file);
+                boolean isHead = getCommits().commitHasFile(headCmt, file);
+                ObjectId givenVer = getCommits().getHashOfFile(givenCmt, file);
                 if (!isHead) { // 6. File F; overwrite with given version, then add it.
-                    blobs.saveBlob(join(CWD, file), blobs.getBlob(givenVer));
-                    add(file);
-                } else { // conflict;
-                    blobs.mergeBlobs(file, Commit.getHashOfFile(headCmt, file), givenVer);
-                    add(file);
+                    join(workDir, file).getParentFile().mkdirs();
+                    getBlobs().copyBlob(givenVer, join(workDir, file));
+                    filesToAdd.add(file);
+                } else { // added in both, merge the lines from an empty file.
+                    conflicted |= getBlobs().mergeBlobs(file, null,
+                            getCommits().getHashOfFile(headCmt, file), givenVer);
+                    filesToAdd.add(file);
                 }
             }
         }
+        if (!filesToAdd.isEmpty()) {
+            add(filesToAdd.toArray(new String[0]));
+        }
         // Skip the 7. File G only in Head, because we should do nothing.
+        return conflicted;
     }
 
     /** A helper method for Method Merge to do some pre-check. */
     private void checkForMerge(String branchName) {
-        if (!branches.hasBranch(branchName)) {
-            exitWithMsg("A branch with that name does not exist.");
+        if (!getBranches().hasBranch(branchName)) {
+            throw new NotFoundException("A branch with that name does not exist.");
         }
-        if (branches.getCurrBranch().equals(branchName)) {
-            exitWithMsg("Cannot merge a branch with itself.");
+        if (getBranches().getCurrBranch().equals(branchName)) {
+            throw new RefusedException("Cannot merge a branch with itself.");
         }
-        checkForUntrackedFiles(commits.getCommit(branches.getBranchPoint(branchName)));
+        checkForUntrackedFiles(getCommits().getCommit(getBranches().getBranchPoint(branchName)));
 
-        if (stage.getFilesFromStage() != null || stage.getFilesFromRemovedStage() != null) {
-            exitWithMsg("You have uncommitted changes.");
+        if (getStage().getFilesFromStage() != null
+                || getStage().getFilesFromRemovedStage() != null) {
+            throw new RefusedException("You have uncommitted changes.");
         }
     }
 
-    /** Return the Hash Code of the split point of the given commit and the HEAD. BFS solution*/
-    private String getSplitPoint(String firstHashCode, String secondHashCode) {
-        HashSet<String> visited = new HashSet<>();
+    /** Return the Hash Code of the split point of the given commit and the HEAD.
+     *  It is found by a walk of the commit graph in the order of the generation numbers.
+     */
+    private ObjectId getSplitPoint(ObjectId firstHashCode, ObjectId secondHashCode) {
+        ObjectId splitPoint = getGraph().getMergeBase(firstHashCode, secondHashCode);
+        if (splitPoint == null) {
+            throw error("There is Not a split point! Something is error!");
+        }
+        return splitPoint;
+    }
 
-        Deque<String> deque = new ArrayDeque<>();
-        deque.addLast(firstHashCode);
-        deque.addLast(secondHashCode);
+    /** Add a remote with the PATH of its .gitlet directory, which need not exist yet. */
+    public void addRemote(String remoteName, String path) {
+        if (getRemotes().hasRemote(remoteName)) {
+            throw new RefusedException("A remote with that name already exists.");
+        }
+        getRemotes().addRemote(remoteName, path);
+    }
 
-        while (!deque.isEmpty()) {
-            String curr = deque.removeFirst();
-            if (visited.contains(curr)) {
-                return curr;
+    /** Rm a remote, but not the branches fetched from it. */
+    public void rmRemote(String remoteName) {
+        if (!getRemotes().hasRemote(remoteName)) {
+            throw new NotFoundException("A remote with that name does not exist.");
+        }
+        getRemotes().removeRemote(remoteName);
+    }
+
+    /**
+     * Copy the head of a branch of a remote and its history into this repository,
+     * and point the branch REMOTENAME/BRANCHNAME at it.
+     * Only the commits and the objects which this repository is missing are copied.
+     */
+    public void fetch(String remoteName, String branchName) {
+        Repository remote = getRemote(remoteName);
+        try {
+            ObjectId remoteHead = remote.getBranches().getBranchPoint(branchName);
+            if (remoteHead == null) {
+                throw new NotFoundException("That remote does not have that branch.");
             }
-            visited.add(curr);
-            for (String parent : Commit.getParents(commits.getCommit(curr))) {
-                if (parent != null) {
-                    deque.addLast(parent);
+            new Transfer(remote.gitletDir, gitletDir).copy(remoteHead);
+            getBranches().setBranches(remoteName + "/" + branchName, remoteHead);
+        } finally {
+            remote.close();
+        }
+    }
+
+    /**
+     * Copy the current commit and its history into a remote,
+     * and point the branch of the remote at it.
+     * It is refused if the head of the branch of the remote is not in the history of
+     * the current commit, so the remote never loses a commit.
+     * The branch of the remote is written by the journal of the remote, as its own
+     * commands do.
+     */
+    public void push(String remoteName, String branchName) {
+        Repository remote = getRemote(remoteName);
+        try {
+            ObjectId head = getBranches().getHead();
+            ObjectId remoteHead = remote.getBranches().getBranchPoint(branchName);
+            if (remoteHead != null && !(getCommits().hasCommit(remoteHead)
+                    && getGraph().isAncestor(remoteHead, head))) {
+                throw new RefusedException("Please pull down remote changes before pushing.");
+            }
+            new Transfer(gitletDir, remote.gitletDir).copy(head);
+            remote.getBranches().setBranches(branchName, head);
+            remote.flush();
+        } finally {
+            remote.close();
+        }
+    }
+
+    /** Fetch a branch of a remote, then merge it into the current branch. */
+    public MergeResult pull(String remoteName, String branchName) {
+        fetch(remoteName, branchName);
+        return merge(remoteName + "/" + branchName);
+    }
+
+    /** Return the Repository of the .gitlet directory of a remote, whose work dir is its
+     *  parent, refuse the command if it does not exist.
+     *  It is opened as its own commands open it: the change left by a killed command is
+     *  recovered, and an old repository is migrated.
+     */
+    private Repository getRemote(String remoteName) {
+        File remoteDir = getRemotes().getRemoteDir(remoteName);
+        if (remoteDir == null) {
+            throw new NotFoundException("A remote with that name does not exist.");
+        }
+        if (!objDir(remoteDir).isDirectory()) {
+            throw new NotFoundException("Remote directory not found.");
+        }
+        return open(remoteDir.getAbsoluteFile().getParentFile(), remoteDir);
+    }
+
+    /** Clean up the object store.
+     *  Delete the temp files left by the interrupted commands, then
+     *  if RECOMPRESS, encode the blob files again with the default codec,
+     *  otherwise pack the blobs of the commits and the stage,
+     *  saving the versions of every file as deltas.
+     */
+    public void gc(boolean recompress) {
+        getBlobs().removeTempFiles();
+        if (recompress) {
+            getBlobs().recompress();
+        } else {
+            TreeSet<ObjectId> staged = new TreeSet<>();
+            String[] stageFiles = getStage().getFilesFromStage();
+            if (stageFiles != null) {
+                for (String fileName : stageFiles) {
+                    staged.add(getStage().getHashForFileInStage(fileName));
                 }
             }
+            getBlobs().pack(getFileHistories(), staged);
         }
+    }
 
-        throw error("There is Not a split point! Something is error!");
+    /** A helper method for Method Gc to list the versions of every file, newest first.
+     *  Only the files changed by a commit are compared, by diffing its tree with its parent.
+     */
+    private List<List<ObjectId>> getFileHistories() {
+        Cmt[] all = getCommits().getAllCommits();
+        Arrays.sort(all, Comparator.comparingLong(Commit::getTimeStamp).reversed());
+
+        TreeMap<String, List<ObjectId>> histories = new TreeMap<>();
+        for (Cmt commit : all) {
+            ObjectId parent = Commit.getParent(commit);
+            ObjectId parentTree = parent == null
+                    ? Tree.EMPTY_HASH : Commit.getTreeHash(getCommits().getCommit(parent));
+            trees.diff(parentTree, Commit.getTreeHash(commit), (path, oldHash, newHash) -> {
+                if (newHash != null) {
+                    histories.computeIfAbsent(path, k -> new ArrayList<>()).add(newHash);
+                }
+            });
+        }
+        return new ArrayList<>(histories.values());
     }
 
-    /** Exit program with message */
-    public static void exitWithMsg(String message) {
-        System.out.println(message);
-        System.exit(0);
+    /** The commits of a walk which are passed to an action: the first SKIP commits are
+     *  skipped, and at most LIMIT commits are passed, or all of them if LIMIT is
+     *  Gitlet.NO_LIMIT. The walks stop as soon as isDone() is true.
+     */
+    private static class Window {
+
+        /** The action of the commits which are not skipped. */
+        private final Consumer<CommitInfo> action;
+
+        /** The number of commits to skip. */
+        private int skip;
+
+        /** The number of commits to pass, or Gitlet.NO_LIMIT. */
+        private int limit;
+
+        /** The constructor of a window which skips SKIP commits and passes LIMIT to ACTION. */
+        Window(int skip, int limit, Consumer<CommitInfo> action) {
+            this.skip = skip;
+            this.limit = limit;
+            this.action = action;
+        }
+
+        /** Return whether no more commits will be passed. */
+        boolean isDone() {
+            return limit == 0;
+        }
+
+        /** Pass a commit to the action, unless it is skipped. */
+        void offer(Cmt commit) {
+            if (isDone()) {
+                return;
+            }
+            if (skip > 0) {
+                skip--;
+                return;
+            }
+            action.accept(CommitInfo.of(commit));
+            if (limit > 0) {
+                limit--;
+            }
+        }
     }
 }
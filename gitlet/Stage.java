@@ -10,46 +10,62 @@ import static gitlet.Utils.*;
  *  There are 1 TreeMap and 1 TreeSet in the stage.
  *  1. stage: tracks the file that had been ADD-ed, but has not been COMMIT-ed.
  *  2. removed:  tracks the file that had been ADD-ed, but removed now.
- *      Key: file name; Value: Hash Code of the file.
+ *      Key: file name; Value: Hash Code of the file, kept as an ObjectId.
+ *  The changes are kept in memory, and saved to disk once by flush() at the end of a command.
  */
 public class Stage {
 
-    /** The file that saves the Serialised Field: stage. */
-    public static final File STAGE_FILE = join(Repository.OBJ_DIR, "stage");
+    /** The file that saves the encoded Field: stage. */
+    private final File stageFile;
 
-    /** The file that saves the Serialised Field: removed. */
-    public static final File REMOVED_STAGE_FILE = join(Repository.OBJ_DIR, "removed_stage");
+    /** The file that saves the encoded Field: removed. */
+    private final File removedStageFile;
 
     /** A TreeMap tracks the file that had been ADD-ed, but has not been COMMIT-ed. */
-    private TreeMap<String, String> stage;
+    private TreeMap<String, ObjectId> stage;
 
     /** A TreeMap tracks the file that had been ADD-ed, but removed now. */
     private TreeSet<String> removed;
 
-    /** The Filed stage and removed is generated by de-serialising from a disk file,
-     * or generate a new one if not exist.
+    /** Whether the Field stage has changed since it was read. */
+    private boolean stageChanged;
+
+    /** Whether the Field removed has changed since it was read. */
+    private boolean removedChanged;
+
+    /** The Filed stage and removed is generated by decoding the disk files
+     * of the repository of GITLETDIR, or generate a new one if not exist.
+     * A file which exists but cannot be read is an error, it is never replaced silently.
+     * A Serialised file of an old repository is written again by ObjectCodec.
+     */
+    public Stage(File gitletDir) {
+        this.stageFile = join(Repository.objDir(gitletDir), "stage");
+        this.removedStageFile = join(Repository.objDir(gitletDir), "removed_stage");
+        this.stage = stageFile.exists()
+                ? ObjectCodec.readHashMap(stageFile)
+                : new TreeMap<>();
+        this.removed = removedStageFile.exists()
+                ? ObjectCodec.readStringSet(removedStageFile)
+                : new TreeSet<>();
+        stageChanged = stageFile.exists() && !ObjectCodec.isEncoded(stageFile);
+        removedChanged = removedStageFile.exists()
+                && !ObjectCodec.isEncoded(removedStageFile);
+    }
+
+    /** Clear the current stage.
+     *  A Field which is already empty is not written again.
      */
-    public Stage() {
-        try {
-            this.stage = (TreeMap<String, String>) readObject(STAGE_FILE, TreeMap.class);
-        } catch (IllegalArgumentException e) {
+    public void initStage() {
+        if (!stage.isEmpty() || !stageFile.exists()) {
             this.stage = new TreeMap<>();
+            stageChanged = true;
         }
-        try {
-            this.removed = (TreeSet<String>) readObject(REMOVED_STAGE_FILE, TreeSet.class);
-        } catch (IllegalArgumentException e) {
+        if (!removed.isEmpty() || !removedStageFile.exists()) {
             this.removed = new TreeSet<>();
+            removedChanged = true;
         }
     }
 
-    /** Clear the current stage, and serialise the Fields stage && removed and save it to disk. */
-    public void initStage() {
-        this.stage = new TreeMap<>();
-        this.removed = new TreeSet<>();
-        saveStage();
-        saveRemovedStage();
-    }
-
     /** Return file names that are tracked by the stage, may return null if it is empty. */
     public String[] getFilesFromStage() {
         if (stage.isEmpty()) {
@@ -67,7 +83,7 @@ public class Stage {
     }
 
     /** Return Hash Code of a file in the stage. */
-    public String getHashForFileInStage(String fileName) {
+    public ObjectId getHashForFileInStage(String fileName) {
         return stage.get(fileName);
     }
 
@@ -81,43 +97,38 @@ public class Stage {
         return removed.contains(fileName);
     }
 
-    /** Return the removed stage
-     *  SHOULD Call saveStage() to serialise the Field stage and save to file.
-     */
-    public void setStage(String fileName, String hashCode) {
+    /** Add a file to the stage. */
+    public void setStage(String fileName, ObjectId hashCode) {
         this.stage.put(fileName, hashCode);
+        stageChanged = true;
     }
 
-    /** Add file name to removed stage, auto serialise the Field removed and save it to disk. */
+    /** Add file name to removed stage. */
     public void setRemovedStage(String fileName) {
-        this.removed.add(fileName);
-        saveRemovedStage();
+        removedChanged |= this.removed.add(fileName);
     }
 
-    /** Remove a file from the stage, return the Hash Code of the file.
-     *  Auto serialise the Field stage and save it to disk.
-     */
-    public String removeFromStage(String fileName) {
-        String value = this.stage.remove(fileName);
-        saveStage();
+    /** Remove a file from the stage, return the Hash Code of the file. */
+    public ObjectId removeFromStage(String fileName) {
+        ObjectId value = this.stage.remove(fileName);
+        stageChanged |= value != null;
         return value;
     }
 
-    /** Remove a file from the removed stage.
-     *  Auto serialise the Field stage and save it to disk.
-     */
+    /** Remove a file from the removed stage. */
     public void removeFromRemovedStage(String fileName) {
-        this.removed.remove(fileName);
-        saveRemovedStage();
+        removedChanged |= this.removed.remove(fileName);
     }
 
-    /** Serialise current stage and save to disk */
-    public void saveStage() {
-        writeObject(STAGE_FILE, this.stage);
-    }
-
-    /** Serialise removed stage and save to disk */
-    public void saveRemovedStage() {
-        writeObject(REMOVED_STAGE_FILE, this.removed);
+    /** Encode the changed Fields stage && removed and write them by the JOURNAL. */
+    public void flush(Journal journal) {
+        if (stageChanged) {
+            journal.write(stageFile, ObjectCodec.encodeHashMap(this.stage));
+            stageChanged = false;
+        }
+        if (removedChanged) {
+            journal.write(removedStageFile, ObjectCodec.encodeStringSet(this.removed));
+            removedChanged = false;
+        }
     }
 }
@@ -0,0 +1,18 @@
+package gitlet;
+
+import java.util.List;
+
+/**
+ * The status of the repository, as Gitlet returns it. Every list is in order.
+ *
+ * @param currentBranch the name of the current branch
+ * @param branches the names of all the branches
+ * @param staged the files staged for addition
+ * @param removed the files staged for removal
+ * @param modified the files modified but not staged, each followed by
+ *                 " (modified)" or " (deleted)"
+ * @param untracked the files in the work dir which are not tracked
+ */
+public record Status(String currentBranch, List<String> branches, List<String> staged,
+                     List<String> removed, List<String> modified, List<String> untracked) {
+}
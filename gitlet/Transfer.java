@@ -0,0 +1,249 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static gitlet.Commit.Cmt;
+import static gitlet.Utils.*;
+
+/**
+ * This class copies a commit and its history from one repository to another,
+ * with only the objects the other repository is missing, for fetch and push.
+ * The repositories are given by their .gitlet directories, whose objects are laid out
+ * the same way, so the objects are read and written as files.
+ * 1. The commits are walked from the head through their parents, and the walk stops at
+ *    every commit the destination has, since it has all of its history as well.
+ * 2. The trees of the missing commits are walked the same way: a tree the destination has
+ *    is skipped with all of its sub trees and blobs.
+ * 3. The missing objects are copied in one batch, the blobs first, then the trees, then
+ *    the commits with their parents first, so the destination never has an object
+ *    whose objects are missing, even if the copy is interrupted.
+ * The commit and tree objects and the blob files are copied as they are, a packed blob
+ * is streamed out of its pack and encoded by the default BlobCodec.
+ */
+class Transfer {
+
+    /** The objects of the repository to copy from. */
+    private final Store from;
+
+    /** The objects of the repository to copy to. */
+    private final Store to;
+
+    /** The constructor of a copy from the repository FROMDIR to the repository TODIR. */
+    Transfer(File fromDir, File toDir) {
+        this.from = new Store(fromDir);
+        this.to = new Store(toDir);
+    }
+
+    /** Copy the commit HEAD and all of its history which the destination is missing. */
+    void copy(ObjectId head) {
+        try {
+            List<Cmt> commits = getMissingCommits(head);
+            Set<ObjectId> trees = new LinkedHashSet<>();
+            Set<ObjectId> blobs = new LinkedHashSet<>();
+            for (Cmt commit : commits) {
+                addMissingTree(Commit.getTreeHash(commit), trees, blobs);
+            }
+
+            for (ObjectId hashCode : blobs) {
+                copyBlob(hashCode);
+            }
+            for (ObjectId hashCode : trees) {
+                copyObject(from.treeDir, to.treeDir, hashCode);
+            }
+            for (Cmt commit : commits) {
+                MessageIndex.add(to.dir, Commit.getHash(commit), Commit.getMessage(commit));
+                copyObject(from.commitDir, to.commitDir, Commit.getHash(commit));
+            }
+        } finally {
+            from.close();
+            to.close();
+        }
+    }
+
+    /** Return the commits of HEAD and its history which the destination is missing,
+     *  with the parents before their children.
+     *  The walk is iterative, so a long history does not overflow the stack.
+     */
+    private List<Cmt> getMissingCommits(ObjectId head) {
+        List<Cmt> res = new ArrayList<>();
+        if (to.hasCommit(head)) {
+            return res;
+        }
+        Set<ObjectId> visited = new HashSet<>();
+        Deque<Cmt> stack = new ArrayDeque<>();
+        visited.add(head);
+        stack.push(from.readCommit(head));
+        while (!stack.isEmpty()) {
+            ObjectId next = null;
+            for (ObjectId parent : Commit.getParents(stack.peek())) {
+                if (parent != null && !visited.contains(parent) && !to.hasCommit(parent)) {
+                    next = parent;
+                    break;
+                }
+            }
+            if (next == null) { // all the parents are copied before it.
+                res.add(stack.pop());
+            } else {
+                visited.add(next);
+                stack.push(from.readCommit(next));
+            }
+        }
+        return res;
+    }
+
+    /** Add the tree HASHCODE and its sub trees which the destination is missing to TREES,
+     *  the sub trees first, and their missing blobs to BLOBS.
+     */
+    private void addMissingTree(ObjectId hashCode, Set<ObjectId> trees, Set<ObjectId> blobs) {
+        if (hashCode.equals(Tree.EMPTY_HASH) || trees.contains(hashCode)
+                || to.hasTree(hashCode)) {
+            return;
+        }
+        for (Map.Entry<String, ObjectId> entry
+                : Tree.getEntries(from.treeDir, hashCode).entrySet()) {
+            ObjectId entryHash = entry.getValue();
+            if (Tree.isTree(entry.getKey())) {
+                addMissingTree(entryHash, trees, blobs);
+            } else if (!to.hasBlob(entryHash)) {
+                blobs.add(entryHash);
+            }
+        }
+        trees.add(hashCode);
+    }
+
+    /** Copy a commit or tree object HASHCODE from the directory FROMDIR to TODIR. */
+    private static void copyObject(File fromDir, File toDir, ObjectId hashCode) {
+        File file = objectFile(toDir, hashCode.toHex());
+        file.getParentFile().mkdirs();
+        writeAtomic(file, readContents(objectFile(fromDir, hashCode.toHex())));
+    }
+
+    /** Copy a blob to a temp file under the blob directory of the destination,
+     *  then rename it to its Hash Code atomically.
+     */
+    private void copyBlob(ObjectId hashCode) {
+        File blobFile = join(from.blobDir, hashCode.toHex());
+        try {
+            File temp = File.createTempFile(Blobs.TEMP_PREFIX, null, to.blobDir);
+            try {
+                if (blobFile.isFile()) {
+                    Files.copy(blobFile.toPath(), temp.toPath(),
+                            StandardCopyOption.REPLACE_EXISTING);
+                } else {
+                    try (InputStream in = from.openPackedBlob(hashCode);
+                         OutputStream out = BlobCodec.getDefault().start(
+                                 Files.newOutputStream(temp.toPath()))) {
+                        in.transferTo(out);
+                    }
+                }
+                syncFile(temp);
+                Files.move(temp.toPath(), join(to.blobDir, hashCode.toHex()).toPath(),
+                        StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                temp.delete();
+            }
+        } catch (IOException e) {
+            throw error("Cannot copy the blob %s: %s", hashCode, e.getMessage());
+        }
+    }
+
+    /** Store is a support class which respects the objects of a .gitlet directory. */
+    private static class Store {
+
+        /** The .gitlet directory. */
+        private final File dir;
+
+        /** The directory of the commit objects. */
+        private final File commitDir;
+
+        /** The directory of the tree objects. */
+        private final File treeDir;
+
+        /** The directory of the blob files. */
+        private final File blobDir;
+
+        /** The directory of the packs. */
+        private final File packDir;
+
+        /** The packs, read when first used. */
+        private List<Pack> packs;
+
+        /** The constructor of the objects of the .gitlet directory DIR. */
+        Store(File dir) {
+            this.dir = dir;
+            this.commitDir = Commit.commitDir(dir);
+            this.treeDir = Tree.treeDir(dir);
+            this.blobDir = Blobs.blobDir(dir);
+            this.packDir = Pack.packDir(dir);
+        }
+
+        /** Return if there is a commit object with the Hash Code. */
+        boolean hasCommit(ObjectId hashCode) {
+            return objectFile(commitDir, hashCode.toHex()).isFile();
+        }
+
+        /** Return the commit object with the Hash Code, which must exist. */
+        Cmt readCommit(ObjectId hashCode) {
+            Cmt commit = Commit.readCommit(commitDir, hashCode);
+            if (commit == null) {
+                throw error("The commit %s does NOT exist!", hashCode);
+            }
+            return commit;
+        }
+
+        /** Return if there is a tree object with the Hash Code. */
+        boolean hasTree(ObjectId hashCode) {
+            return objectFile(treeDir, hashCode.toHex()).isFile();
+        }
+
+        /** Return if there is a blob with the Hash Code, in a blob file or a pack. */
+        boolean hasBlob(ObjectId hashCode) {
+            return join(blobDir, hashCode.toHex()).isFile() || findPack(hashCode) != null;
+        }
+
+        /** Return a stream of the decoded contents of a packed blob. */
+        InputStream openPackedBlob(ObjectId hashCode) throws IOException {
+            Pack pack = findPack(hashCode);
+            if (pack == null) {
+                throw error("The blob file is NOT exist, check the hashCode first!");
+            }
+            return pack.open(hashCode);
+        }
+
+        /** Return the pack which has a blob, or null if it is not in any pack. */
+        private Pack findPack(ObjectId hashCode) {
+            if (packs == null) {
+                packs = Pack.loadAll(packDir);
+            }
+            for (Pack pack : packs) {
+                if (pack.contains(hashCode)) {
+                    return pack;
+                }
+            }
+            return null;
+        }
+
+        /** Close the packs which have been read. */
+        void close() {
+            if (packs != null) {
+                for (Pack pack : packs) {
+                    pack.close();
+                }
+                packs = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,338 @@
+package gitlet;
+
+import java.io.File;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.function.BiConsumer;
+
+import static gitlet.Utils.*;
+
+/**
+ * This class manages the tree objects.
+ * A tree object lists the entries of one directory.
+ * Key: the name of a file, or the name of a sub directory ending with "/";
+ * Value: the Hash Code of the blob of the file, or of the tree of the sub directory.
+ * The Hash Code of a tree depends only on its entries, so the unchanged trees
+ * are shared between commits, and 2 trees are the same if their Hash Codes are the same.
+ * Every tree is saved under the tree directory of a repository, sharded by the first
+ * 2 characters of its Hash Code.
+ * Tree objects are immutable, so the ones used most recently are cached, at most MAX_NODES,
+ * as long as the Repository is kept.
+ * The Hash Codes are ObjectIds, which are formatted as hex Strings only to name the files
+ * of the trees and to hash the entries.
+ */
+public class Tree {
+
+    /** The separator of the directories in a file path. */
+    public static final String SEPARATOR = "/";
+
+    /** The Hash Code of the empty tree, which is never saved to disk. */
+    public static final ObjectId EMPTY_HASH = hashOf(new TreeMap<>());
+
+    /** The maximum number of trees in the cache. */
+    static final int MAX_NODES = 8192;
+
+    /** A cache of the trees which have been loaded from disk or saved, in the order of
+     *  their last use, so the least recently used one is dropped when there are too many.
+     *  Key: Hash Code of the tree; Value: the entries of the tree.
+     */
+    private final Map<ObjectId, Node> nodes = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<ObjectId, Node> eldest) {
+            return size() > MAX_NODES;
+        }
+    };
+
+    /** The directory that saves the tree objects. */
+    private final File treeDir;
+
+    /** Node is a support class which respects a tree object. */
+    private static class Node implements Serializable {
+
+        /** Kept the same as before, so the trees in old repositories can be read. */
+        private static final long serialVersionUID = -5518193813947306425L;
+
+        /** The entries of this tree. */
+        private final TreeMap<String, ObjectId> entries;
+
+        /** The constructor of a tree. */
+        private Node(TreeMap<String, ObjectId> entries) {
+            this.entries = entries;
+        }
+
+        /** Return the tree with ObjectIds for a Serialised tree of an old repository,
+         *  whose Hash Codes are hex Strings.
+         */
+        private Object readResolve() {
+            TreeMap<String, ObjectId> res = new TreeMap<>();
+            ((Map<?, ?>) entries).forEach((name, hashCode) -> res.put((String) name,
+                    hashCode instanceof String ? ObjectId.fromHex((String) hashCode)
+                            : (ObjectId) hashCode));
+            return new Node(res);
+        }
+    }
+
+    /** The constructor of the trees of the repository of GITLETDIR. */
+    Tree(File gitletDir) {
+        this.treeDir = treeDir(gitletDir);
+    }
+
+    /** Return the directory of the tree objects of the repository of GITLETDIR. */
+    static File treeDir(File gitletDir) {
+        return join(gitletDir, "tree");
+    }
+
+    /** Receives a file that differs between 2 trees. */
+    public interface DiffConsumer {
+
+        /** Accept a PATH, OLDHASH is null if it is added, NEWHASH is null if it is removed. */
+        void accept(String path, ObjectId oldHash, ObjectId newHash);
+    }
+
+    /** Return the Hash Code of the blob of a file PATH in the root tree, may return null. */
+    public ObjectId getHashOfFile(ObjectId rootHash, String path) {
+        ObjectId hash = rootHash;
+        int start = 0;
+        int end = path.indexOf(SEPARATOR);
+        while (end >= 0) {
+            hash = getNode(hash).entries.get(path.substring(start, end + 1));
+            if (hash == null) {
+                return null;
+            }
+            start = end + 1;
+            end = path.indexOf(SEPARATOR, start);
+        }
+        return getNode(hash).entries.get(path.substring(start));
+    }
+
+    /** Return the Hash Code of the blob of a file PATH, or of the tree of a directory PATH,
+     *  in the root tree, may return null.
+     */
+    public ObjectId getHashOfPath(ObjectId rootHash, String path) {
+        ObjectId hash = rootHash;
+        boolean isTree = true;
+        for (String name : path.split(SEPARATOR)) {
+            if (name.isEmpty()) {
+                continue;
+            }
+            if (!isTree) {
+                return null;
+            }
+            TreeMap<String, ObjectId> entries = getNode(hash).entries;
+            hash = entries.get(name + SEPARATOR);
+            if (hash == null) {
+                hash = entries.get(name);
+                isTree = false;
+                if (hash == null) {
+                    return null;
+                }
+            }
+        }
+        return hash;
+    }
+
+    /** Return all the file paths and the Hash Codes of their blobs in the root tree. */
+    public TreeMap<String, ObjectId> getFiles(ObjectId rootHash) {
+        TreeMap<String, ObjectId> files = new TreeMap<>();
+        walk(rootHash, "", files::put);
+        return files;
+    }
+
+    /** Return all the file paths in the root tree in order, by a walk of its trees. */
+    public List<String> getFileNames(ObjectId rootHash) {
+        List<String> names = new ArrayList<>();
+        walk(rootHash, "", (path, hash) -> names.add(path));
+        return names;
+    }
+
+    /** Pass the path and the Hash Code of every file under a tree to ACTION in order,
+     *  the paths start with PREFIX.
+     */
+    private void walk(ObjectId hash, String prefix, BiConsumer<String, ObjectId> action) {
+        for (Map.Entry<String, ObjectId> entry : getNode(hash).entries.entrySet()) {
+            if (isTree(entry.getKey())) {
+                walk(entry.getValue(), prefix + entry.getKey(), action);
+            } else {
+                action.accept(prefix + entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /** Drop the cached trees, e.g. when the Repository is closed. */
+    void clear() {
+        nodes.clear();
+    }
+
+    /**
+     * Apply the CHANGES to the root tree and return the Hash Code of the new root tree.
+     * Only the trees on the paths of the changed files are saved to disk,
+     * all the others are shared with the old root tree.
+     *
+     * @param rootHash the Hash Code of the old root tree.
+     * @param changes Key: file path; Value: the Hash Code of the new blob, null to remove it.
+     */
+    public ObjectId update(ObjectId rootHash, Map<String, ObjectId> changes) {
+        if (changes.isEmpty()) {
+            return rootHash;
+        }
+        TreeMap<String, ObjectId> entries = new TreeMap<>(getNode(rootHash).entries);
+        TreeMap<String, Map<String, ObjectId>> subChanges = new TreeMap<>();
+
+        for (Map.Entry<String, ObjectId> change : changes.entrySet()) {
+            String path = change.getKey();
+            int end = path.indexOf(SEPARATOR);
+            if (end >= 0) { // group the changes by the sub directory.
+                subChanges.computeIfAbsent(path.substring(0, end + 1), k -> new HashMap<>())
+                        .put(path.substring(end + 1), change.getValue());
+            } else if (change.getValue() == null) {
+                entries.remove(path);
+            } else {
+                entries.put(path, change.getValue());
+            }
+        }
+
+        for (Map.Entry<String, Map<String, ObjectId>> sub : subChanges.entrySet()) {
+            ObjectId oldHash = entries.getOrDefault(sub.getKey(), EMPTY_HASH);
+            ObjectId newHash = update(oldHash, sub.getValue());
+            if (newHash.equals(EMPTY_HASH)) { // do NOT keep the empty directory.
+                entries.remove(sub.getKey());
+            } else {
+                entries.put(sub.getKey(), newHash);
+            }
+        }
+
+        return saveNode(entries);
+    }
+
+    /** Report every file that differs between 2 root trees to CONSUMER in order of the path.
+     *  The sub trees with the same Hash Code are skipped without being read.
+     */
+    public void diff(ObjectId oldHash, ObjectId newHash, DiffConsumer consumer) {
+        diff(oldHash, newHash, "", consumer);
+    }
+
+    /** A helper method for Method Diff to compare 2 trees under PREFIX. */
+    private void diff(ObjectId oldHash, ObjectId newHash, String prefix,
+                             DiffConsumer consumer) {
+        if (Objects.equals(oldHash, newHash)) {
+            return;
+        }
+        TreeMap<String, ObjectId> oldEntries = oldHash == null
+                ? new TreeMap<>() : getNode(oldHash).entries;
+        TreeMap<String, ObjectId> newEntries = newHash == null
+                ? new TreeMap<>() : getNode(newHash).entries;
+
+        TreeMap<String, Boolean> names = new TreeMap<>();
+        oldEntries.keySet().forEach(name -> names.put(name, true));
+        newEntries.keySet().forEach(name -> names.put(name, true));
+
+        for (String name : names.keySet()) {
+            ObjectId oldEntry = oldEntries.get(name);
+            ObjectId newEntry = newEntries.get(name);
+            if (Objects.equals(oldEntry, newEntry)) {
+                continue;
+            }
+            if (isTree(name)) {
+                diff(oldEntry, newEntry, prefix + name, consumer);
+            } else {
+                consumer.accept(prefix + name, oldEntry, newEntry);
+            }
+        }
+    }
+
+    /** Return if an entry name is a sub directory. */
+    static boolean isTree(String name) {
+        return name.endsWith(SEPARATOR);
+    }
+
+    /** Return the tree by Hash Code, read it from disk if it is not in the cache. */
+    private Node getNode(ObjectId hashCode) {
+        Node node = nodes.get(hashCode);
+        if (node == null) {
+            if (hashCode.equals(EMPTY_HASH)) {
+                node = new Node(new TreeMap<>());
+            } else {
+                node = readNode(treeDir, hashCode);
+            }
+            nodes.put(hashCode, node);
+        }
+        return node;
+    }
+
+    /** Return the entries of a tree by Hash Code from the tree directory DIR,
+     *  which may be of another repository. The tree is not cached.
+     */
+    static TreeMap<String, ObjectId> getEntries(File dir, ObjectId hashCode) {
+        return hashCode.equals(EMPTY_HASH) ? new TreeMap<>() : readNode(dir, hashCode).entries;
+    }
+
+    /** Read a tree by Hash Code from the tree directory DIR. */
+    private static Node readNode(File dir, ObjectId hashCode) {
+        File file = objectFile(dir, hashCode.toHex());
+        if (!file.isFile()) {
+            throw error("The tree object %s does NOT exist!", hashCode);
+        }
+        return ObjectCodec.read(file, ObjectCodec.TREE,
+                in -> new Node(decode(in)), Node.class);
+    }
+
+    /** Return the entries of a tree encoded by ObjectCodec: the number of the entries,
+     *  then the name and the Hash Code of each entry.
+     */
+    private static byte[] encode(TreeMap<String, ObjectId> entries) {
+        ObjectCodec.Output out = new ObjectCodec.Output(ObjectCodec.TREE)
+                .writeCount(entries.size());
+        entries.forEach((name, hashCode) -> out.writeString(name).writeHash(hashCode));
+        return out.toByteArray();
+    }
+
+    /** Return the entries of a tree decoded from IN. */
+    private static TreeMap<String, ObjectId> decode(ObjectCodec.Input in) {
+        TreeMap<String, ObjectId> entries = new TreeMap<>();
+        for (int i = in.readCount(); i > 0; i--) {
+            entries.put(in.readString(), in.readHash());
+        }
+        return entries;
+    }
+
+    /** Encode the Serialised tree objects of an old repository by ObjectCodec. */
+    void encodeObjects() {
+        ObjectCodec.encodeAll(treeDir, file -> encode(readObject(file, Node.class).entries));
+    }
+
+    /** Save a tree to disk if it does not exist, and return its Hash Code. */
+    private ObjectId saveNode(TreeMap<String, ObjectId> entries) {
+        ObjectId hashCode = hashOf(entries);
+        if (nodes.containsKey(hashCode)) {
+            return hashCode;
+        }
+        Node node = new Node(entries);
+        nodes.put(hashCode, node);
+        if (!hashCode.equals(EMPTY_HASH)) {
+            File file = objectFile(treeDir, hashCode.toHex());
+            if (!file.exists()) {
+                file.getParentFile().mkdirs();
+                writeAtomic(file, encode(entries));
+            }
+        }
+        return hashCode;
+    }
+
+    /** Return the Hash Code of a tree, which depends only on its entries
+     *  and the hex Strings of their Hash Codes.
+     */
+    private static ObjectId hashOf(TreeMap<String, ObjectId> entries) {
+        StringBuilder content = new StringBuilder("tree\n");
+        for (Map.Entry<String, ObjectId> entry : entries.entrySet()) {
+            content.append(entry.getKey()).append('\0')
+                    .append(entry.getValue().toHex()).append('\n');
+        }
+        return ObjectId.fromHex(sha1(content.toString()));
+    }
+}
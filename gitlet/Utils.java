@@ -4,17 +4,24 @@ import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Formatter;
 import java.util.List;
 
@@ -63,6 +70,45 @@ class Utils {
         return sha1(vals.toArray(new Object[vals.size()]));
     }
 
+    /** The size of the buffer used to stream the contents of a file. */
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    /** Returns the SHA-1 hash of the contents of FILE, which is read in
+     *  chunks of BUFFER_SIZE, so that the memory used does not depend on
+     *  the size of FILE.  Throws IllegalArgumentException in case of
+     *  problems. */
+    static String sha1OfFile(File file) {
+        MessageDigest md = sha1Digest();
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                md.update(buffer, 0, n);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return toHex(md.digest());
+    }
+
+    /** Returns a new SHA-1 MessageDigest. */
+    static MessageDigest sha1Digest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+    }
+
+    /** Returns DIGEST as a hexadecimal numeral, in the same form as sha1. */
+    static String toHex(byte[] digest) {
+        Formatter result = new Formatter();
+        for (byte b : digest) {
+            result.format("%02x", b);
+        }
+        return result.toString();
+    }
+
     /* FILE DELETION */
 
     /** Deletes FILE if it exists and is not a directory.  Returns true
@@ -136,6 +182,71 @@ class Utils {
         }
     }
 
+    /** Write CONTENTS to FILE as writeContents does, but durably, for the files
+     *  of the repository: the bytes are written to a temp file, forced to the disk
+     *  and renamed over FILE atomically, then the rename is forced to the disk.
+     *  Throws IllegalArgumentException in case of problems. */
+    static void writeAtomic(File file, Object... contents) {
+        try {
+            if (file.isDirectory()) {
+                throw
+                    new IllegalArgumentException("cannot overwrite directory");
+            }
+            File temp = writeTemp(file.getAbsoluteFile().getParentFile(),
+                    file.getName(), contents);
+            try {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                temp.delete();
+            }
+            syncDir(file.getAbsoluteFile().getParentFile());
+        } catch (IOException | ClassCastException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Write CONTENTS to a new hidden temp file in DIR whose name starts with "." and NAME,
+     *  and force it to the disk before returning it.  A crash never leaves
+     *  a half written file under the real name, only a temp file.
+     *  The "." also keeps the prefix long enough for a NAME of a single character. */
+    static File writeTemp(File dir, String name, Object... contents) throws IOException {
+        File temp = File.createTempFile("." + name + ".", ".tmp", dir);
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            BufferedOutputStream str = new BufferedOutputStream(out);
+            for (Object obj : contents) {
+                if (obj instanceof byte[]) {
+                    str.write((byte[]) obj);
+                } else {
+                    str.write(((String) obj).getBytes(StandardCharsets.UTF_8));
+                }
+            }
+            str.flush();
+            out.getFD().sync();
+        } catch (IOException | ClassCastException excp) {
+            temp.delete();
+            throw excp;
+        }
+        return temp;
+    }
+
+    /** Force the contents of FILE to the disk. */
+    static void syncFile(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+    }
+
+    /** Force the entries of the directory DIR to the disk, so a rename in it
+     *  survives a crash.  Does nothing where directories cannot be opened. */
+    static void syncDir(File dir) {
+        try (FileChannel channel = FileChannel.open(dir.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException excp) {
+            // not supported on this platform, the rename is still atomic.
+        }
+    }
+
     /** Return an object of type T read from FILE, casting it to EXPECTEDCLASS.
      *  Throws IllegalArgumentException in case of problems. */
     static <T extends Serializable> T readObject(File file,
@@ -188,6 +299,32 @@ class Utils {
         return plainFilenamesIn(new File(dir));
     }
 
+    /** Returns the paths of all plain files under the directory DIR, relative
+     *  to DIR and separated by '/', in lexicographic order. The .gitlet
+     *  directory and the directories of other repositories are skipped. */
+    static List<String> workFilenamesIn(File dir) {
+        List<String> result = new ArrayList<>();
+        workFilenamesIn(dir, "", result);
+        Collections.sort(result);
+        return result;
+    }
+
+    /** Add the paths of the plain files under DIR to RESULT, with the PREFIX. */
+    private static void workFilenamesIn(File dir, String prefix, List<String> result) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.isFile()) {
+                result.add(prefix + file.getName());
+            } else if (file.isDirectory() && !file.getName().equals(".gitlet")
+                    && !new File(file, ".gitlet").exists()) {
+                workFilenamesIn(file, prefix + file.getName() + "/", result);
+            }
+        }
+    }
+
     /* OTHER FILE UTILITIES */
 
     /** Return the concatentation of FIRST and OTHERS into a File designator,
@@ -204,6 +341,16 @@ class Utils {
         return Paths.get(first.getPath(), others).toFile();
     }
 
+    /** The length of the shard directory name of an object file. */
+    static final int SHARD_LENGTH = 2;
+
+    /** Return the file of the object named HASHCODE under DIR, sharded by
+     *  the first SHARD_LENGTH characters of HASHCODE, e.g. DIR/ab/cdef... */
+    static File objectFile(File dir, String hashCode) {
+        return join(dir, hashCode.substring(0, SHARD_LENGTH),
+                    hashCode.substring(SHARD_LENGTH));
+    }
+
 
     /* SERIALIZATION UTILITIES */
 